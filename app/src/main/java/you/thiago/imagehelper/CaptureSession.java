@@ -0,0 +1,498 @@
+package you.thiago.imagehelper;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.FileProvider;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Camera capture with the slow parts moved out of the way:
+ *
+ * - the output file and its FileProvider uri are allocated in background, ahead of the next capture;
+ * - the output file is watched (FileObserver CLOSE_WRITE), so probing, the preview and the resize start the
+ *   moment the camera finishes writing, while the camera activity is still returning;
+ * - a preview is delivered first, the stored image only after the capture is confirmed with {@link #onResult(boolean)}.
+ *
+ * Callbacks run on the main thread. Keep the session for the activity lifetime and close it on destroy, across
+ * configuration changes use {@link #onSaveInstanceState(Bundle)} / {@link #onRestoreInstanceState(Bundle)}.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class CaptureSession implements Closeable {
+
+    public static final int DEFAULT_PREVIEW_SIZE = 512;
+
+    /* wait for more writes (e.g. EXIF added after the pixels) before processing */
+    private static final long SETTLE_MS = 100;
+
+    private static final String STATE_FILE = "you.thiago.imagehelper.capture.file";
+    private static final String STATE_TITLE = "you.thiago.imagehelper.capture.title";
+
+    public interface Callback {
+        /**
+         * Downsampled capture, available before the full image is stored.
+         */
+        void onPreview(@NonNull Bitmap preview);
+
+        /**
+         * Capture resized and stored.
+         */
+        void onStored(@NonNull ImageHelper.Image image);
+
+        void onError(@NonNull Exception error);
+    }
+
+    private static class Slot {
+
+        final File file;
+        final String title;
+        final Uri uri;
+
+        Slot(File file, String title, Uri uri) {
+            this.file = file;
+            this.title = title;
+            this.uri = uri;
+        }
+    }
+
+    private final Context context;
+    private final Callback callback;
+
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final ScheduledExecutorService executor;
+
+    private int maxWidth = ImageComponent.DEFAULT_IMG_MAX_WIDTH;
+    private int maxHeight = ImageComponent.DEFAULT_IMG_MAX_HEIGHT;
+    private int quality = ImageComponent.DEFAULT_IMG_QUALITY;
+    private int maxBytes;
+
+    private int previewWidth = DEFAULT_PREVIEW_SIZE;
+    private int previewHeight = DEFAULT_PREVIEW_SIZE;
+
+    private ImageStorage storage = ImageStorage.mediaStore();
+
+    @Nullable
+    private String authority;
+
+    /* guarded by this */
+    private Future<Slot> next;
+    private Slot current;
+    private FileObserver observer;
+    private ScheduledFuture<?> scheduled;
+    private long version;
+    private long writtenLength = -1;
+    private long writtenModified = -1;
+    private ImageHelper.Image processed;
+    private boolean confirmed;
+    private boolean delivered;
+    private boolean closed;
+
+    private CaptureSession(Context context, Callback callback) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.callback = callback;
+
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "CaptureSession");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        pool.setRemoveOnCancelPolicy(true);
+
+        executor = pool;
+    }
+
+    /**
+     * New session, the first output file is allocated right away in background.
+     */
+    public static CaptureSession open(@NonNull Context context, @NonNull Callback callback) {
+        CaptureSession session = new CaptureSession(context, callback);
+        session.prepare();
+
+        return session;
+    }
+
+    public CaptureSession setSize(int maxWidth, int maxHeight, int quality) {
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.quality = quality;
+        return this;
+    }
+
+    public CaptureSession setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    public CaptureSession setPreviewSize(int width, int height) {
+        this.previewWidth = width;
+        this.previewHeight = height;
+        return this;
+    }
+
+    public CaptureSession setStorage(@NonNull ImageStorage storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    /**
+     * FileProvider authority of the output uri (default "package.provider", same as {@link ImageHandler}).
+     */
+    public synchronized CaptureSession setAuthority(@Nullable String authority) {
+        this.authority = authority;
+
+        Future<Slot> previous = next;
+        next = null;
+
+        if (previous != null && !previous.cancel(false)) {
+            executor.execute(() -> discard(previous));
+        }
+
+        prepare();
+        return this;
+    }
+
+    /**
+     * Allocate the next output file (if not allocated yet).
+     */
+    public synchronized void prepare() {
+        if (next == null && !closed) {
+            next = executor.submit(this::allocate);
+        }
+    }
+
+    /**
+     * Camera intent writing into the preallocated file, watched from now on.
+     */
+    @NonNull
+    public Intent newCaptureIntent(boolean facingFront) throws IOException {
+        Slot slot;
+
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Capture session closed.");
+            }
+
+            prepare();
+            slot = take(next);
+            next = null;
+
+            reset();
+            current = slot;
+            watch(slot.file);
+
+            // next capture starts from a ready file too
+            prepare();
+        }
+
+        Intent intent = ImageHandler.with(context).configCameraIntent(slot.uri, facingFront);
+        intent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+        return intent;
+    }
+
+    /**
+     * Camera result: store the capture (processed already or as soon as it is), or drop it.
+     */
+    public void onResult(boolean captured) {
+        synchronized (this) {
+            if (current == null || closed) {
+                return;
+            }
+
+            if (!captured) {
+                File file = current.file;
+
+                reset();
+                current = null;
+
+                executor.execute(() -> delete(file));
+                return;
+            }
+
+            confirmed = true;
+        }
+
+        // in case the write was not observed (some storages do not report it)
+        onWritten();
+        deliver();
+    }
+
+    /**
+     * Output file of the capture in progress.
+     */
+    @Nullable
+    public synchronized File getFile() {
+        return current != null ? current.file : null;
+    }
+
+    public synchronized void onSaveInstanceState(@NonNull Bundle outState) {
+        if (current != null) {
+            outState.putString(STATE_FILE, current.file.getAbsolutePath());
+            outState.putString(STATE_TITLE, current.title);
+        }
+    }
+
+    /**
+     * Watch again the capture in progress before the activity was recreated.
+     */
+    public void onRestoreInstanceState(@Nullable Bundle savedState) {
+        String path = savedState != null ? savedState.getString(STATE_FILE) : null;
+
+        if (path == null) {
+            return;
+        }
+
+        synchronized (this) {
+            File file = new File(path);
+            String title = savedState.getString(STATE_TITLE, ImageNames.getTitle(file));
+
+            reset();
+            current = new Slot(file, title, getUri(file));
+            watch(file);
+        }
+
+        onWritten();
+    }
+
+    @Override
+    public void close() {
+        Future<Slot> unused;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            reset();
+
+            unused = next;
+            next = null;
+            current = null;
+        }
+
+        // drop the preallocated file, it was never handed to a camera
+        if (unused != null) {
+            executor.execute(() -> discard(unused));
+        }
+
+        executor.shutdown();
+    }
+
+    private Slot allocate() throws IOException {
+        String title = ImageNames.next();
+        File file = ImageNames.createImageFile(context, title);
+
+        return new Slot(file, title, getUri(file));
+    }
+
+    private Uri getUri(File file) {
+        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.KITKAT) {
+            return FileProvider.getUriForFile(context, authority != null ? authority : context.getPackageName() + ".provider", file);
+        }
+
+        return Uri.fromFile(file);
+    }
+
+    private Slot take(Future<Slot> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while allocating the capture file.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+    /* guarded by this */
+    @SuppressWarnings("deprecation")
+    private void watch(File file) {
+        int mask = FileObserver.CLOSE_WRITE;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            observer = new FileObserver(file, mask) {
+                @Override
+                public void onEvent(int event, @Nullable String path) {
+                    onWritten();
+                }
+            };
+        } else {
+            observer = new FileObserver(file.getAbsolutePath(), mask) {
+                @Override
+                public void onEvent(int event, @Nullable String path) {
+                    onWritten();
+                }
+            };
+        }
+
+        observer.startWatching();
+    }
+
+    /* guarded by this */
+    private void reset() {
+        if (observer != null) {
+            observer.stopWatching();
+            observer = null;
+        }
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+
+        version++;
+        writtenLength = -1;
+        writtenModified = -1;
+        processed = null;
+        confirmed = false;
+        delivered = false;
+    }
+
+    /**
+     * File closed after writing: (re)start processing once it settles, unless this content is processed already.
+     */
+    private void onWritten() {
+        synchronized (this) {
+            if (current == null || closed) {
+                return;
+            }
+
+            File file = current.file;
+            long length = file.length();
+            long modified = file.lastModified();
+
+            if (length <= 0 || (length == writtenLength && modified == writtenModified)) {
+                return;
+            }
+
+            writtenLength = length;
+            writtenModified = modified;
+
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+
+            long processing = ++version;
+            Slot slot = current;
+
+            processed = null;
+            scheduled = executor.schedule(() -> process(slot, processing), SETTLE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized boolean isStale(long processing) {
+        return closed || processing != version;
+    }
+
+    private void process(Slot slot, long processing) {
+        Uri uri = Uri.fromFile(slot.file);
+
+        // header first: a file still incomplete fails here and waits for the next write
+        ImageProbe.Info info = ImageProbe.probe(context, uri);
+
+        if (info == null || !info.hasSize() || isStale(processing)) {
+            return;
+        }
+
+        ImageThumbnails.remove(context, uri, previewWidth, previewHeight);
+        Bitmap preview = ImageThumbnails.getThumbnail(context, uri, previewWidth, previewHeight);
+
+        if (preview != null && !isStale(processing)) {
+            main.post(() -> {
+                if (!isStale(processing)) {
+                    callback.onPreview(preview);
+                }
+            });
+        }
+
+        ImageProfiles.Profile profile = ImageProfiles.get(context);
+        ImageHelper.Image image = ImageHelper.resizeImage(context, uri, null, profile.getWidth(maxWidth), profile.getHeight(maxHeight),
+                profile.getQuality(quality), maxBytes);
+
+        synchronized (this) {
+            if (isStale(processing)) {
+                return;
+            }
+
+            processed = image;
+        }
+
+        deliver();
+    }
+
+    /**
+     * Store the processed capture once it is confirmed (on the session thread).
+     */
+    private void deliver() {
+        Slot slot;
+        ImageHelper.Image image;
+
+        synchronized (this) {
+            if (!confirmed || delivered || processed == null || closed) {
+                return;
+            }
+
+            delivered = true;
+
+            slot = current;
+            image = processed;
+        }
+
+        executor.execute(() -> {
+            try {
+                if (image.bitmap == null) {
+                    throw new IOException("Failed to decode " + slot.file);
+                }
+
+                Uri stored = image.compression != null
+                        ? storage.store(context, slot.title, image.compression)
+                        : storage.store(context, slot.title, image.bitmap, ImageProfiles.getCurrent().getQuality(quality));
+
+                image.uri = stored.toString();
+
+                main.post(() -> callback.onStored(image));
+            } catch (Exception e) {
+                Log.e(CaptureSession.class.getSimpleName(), e.getMessage(), e);
+                main.post(() -> callback.onError(e));
+            }
+        });
+    }
+
+    private static void discard(Future<Slot> slot) {
+        try {
+            delete(slot.get().file);
+        } catch (Exception ignore) {}
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(CaptureSession.class.getSimpleName(), "Cannot delete " + file);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package you.thiago.imagehelper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.FileProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Write images straight to a directory owned by the app (external files or cache), without MediaStore.
+ *
+ * The JPEG is encoded into the direct output of the thread {@link PixelArena} first, so the file can be
+ * preallocated to its final size and written with a single FileChannel call, without copying it to the heap.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class FileStorage extends ImageStorage {
+
+    public enum Sync {
+        /* leave it to the kernel, fastest, may lose data on power loss */
+        NONE,
+        /* flush file content only */
+        DATA,
+        /* flush file content and metadata */
+        ALL
+    }
+
+    private final File directory;
+
+    private Sync sync = Sync.DATA;
+
+    @Nullable
+    private String authority;
+
+    private volatile boolean directoryChecked;
+
+    public FileStorage(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @NonNull
+    @Override
+    public String getKey() {
+        return directory.getAbsolutePath() + (authority != null ? "#" + authority : "");
+    }
+
+    public FileStorage setSync(@NonNull Sync sync) {
+        this.sync = sync;
+        return this;
+    }
+
+    @Nullable
+    public String getAuthority() {
+        return authority;
+    }
+
+    /**
+     * Return content URIs from the given FileProvider authority instead of file URIs.
+     */
+    public FileStorage useFileProvider(@Nullable String authority) {
+        this.authority = authority;
+        return this;
+    }
+
+    /**
+     * Return content URIs from the FileProvider already used by the camera intents ("packageName.provider").
+     */
+    public FileStorage useFileProvider(@NonNull Context context) {
+        return useFileProvider(context.getPackageName() + ".provider");
+    }
+
+    @NonNull
+    @Override
+    public Uri store(@NonNull Context context, @NonNull String title, @NonNull Bitmap bitmap, int quality) throws IOException {
+        PixelArena arena = PixelArena.get();
+        PixelArena.Output output = arena.getOutput();
+
+        try {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, output)) {
+                throw new IOException("Failed to save bitmap.");
+            }
+
+            return write(context, title, output.data());
+        } finally {
+            arena.release();
+        }
+    }
+
+    @NonNull
+    @Override
+    public Uri store(@NonNull Context context, @NonNull String title, @NonNull ImageHelper.Compression compression) throws IOException {
+        return write(context, title, compression.getData());
+    }
+
+    public File getFile(@NonNull String title) {
+        return new File(directory, title + ".jpg");
+    }
+
+    private Uri write(Context context, String title, ByteBuffer data) throws IOException {
+        checkDirectory();
+
+        File file = getFile(title);
+
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw"); FileChannel channel = output.getChannel()) {
+            // preallocate final size (also truncates a previous file with the same title)
+            output.setLength(data.remaining());
+
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+
+            if (sync == Sync.DATA) {
+                channel.force(false);
+            } else if (sync == Sync.ALL) {
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            throw e;
+        }
+
+        if (authority != null) {
+            return FileProvider.getUriForFile(context, authority, file);
+        }
+
+        return Uri.fromFile(file);
+    }
+
+    private void checkDirectory() throws IOException {
+        if (directoryChecked) {
+            return;
+        }
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create storage dir: " + directory);
+        }
+
+        directoryChecked = true;
+    }
+}
@@ -0,0 +1,275 @@
+package you.thiago.imagehelper;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Insert many images into MediaStore with a fixed number of binder round-trips:
+ * one batch to create the pending records, concurrent writes, and one batch to publish
+ * the written records (and delete the failed ones).
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageBatch {
+
+    private static final int MAX_WRITERS = 4;
+
+    public static class Item {
+
+        public final Bitmap bitmap;
+        public final String title;
+
+        public Item(Bitmap bitmap, String title) {
+            this.bitmap = bitmap;
+            this.title = title;
+        }
+    }
+
+    public static class Result {
+
+        public final String title;
+
+        @Nullable
+        public String uri;
+
+        @Nullable
+        public Exception error;
+
+        public Result(String title) {
+            this.title = title;
+        }
+
+        public boolean isSuccess() {
+            return uri != null && error == null;
+        }
+    }
+
+    public static List<Result> insertImages(Context context, List<Item> items, int quality) {
+        List<Result> results = new ArrayList<>(items.size());
+
+        for (Item item : items) {
+            results.add(new Result(item.title));
+        }
+
+        if (items.isEmpty()) {
+            return results;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            insertPending(context, items, results, quality);
+        } else {
+            insertFiles(context, items, results, quality);
+        }
+
+        return results;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private static void insertPending(Context context, List<Item> items, List<Result> results, int quality) {
+        ContentResolver resolver = context.getContentResolver();
+        Uri[] uris = new Uri[items.size()];
+
+        /* create all pending records at once */
+        long started = System.currentTimeMillis() / 1000;
+
+        try {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(items.size());
+
+            for (Item item : items) {
+                operations.add(ContentProviderOperation.newInsert(MediaStoreStorage.DEFAULT.getCollection())
+                        .withValues(MediaStoreStorage.DEFAULT.getPendingValues(item.title))
+                        .build());
+            }
+
+            ContentProviderResult[] created = resolver.applyBatch(MediaStore.AUTHORITY, operations);
+
+            for (int i = 0; i < created.length && i < uris.length; i++) {
+                uris[i] = created[i].uri;
+            }
+        } catch (Exception e) {
+            Log.e(ImageBatch.class.getSimpleName(), e.getMessage(), e);
+
+            // applyBatch is not transactional, the inserts before the failing one are still there
+            rollbackPending(context, items, started);
+            fail(results, e);
+
+            return;
+        }
+
+        /* stream bitmaps into records concurrently */
+        write(items, results, (index, item) -> {
+            if (uris[index] == null) {
+                throw new IOException("Failed to create new MediaStore record.");
+            }
+
+            try (OutputStream stream = resolver.openOutputStream(uris[index])) {
+                if (stream == null) {
+                    throw new IOException("Failed to get output stream.");
+                }
+
+                if (item.bitmap == null || !item.bitmap.compress(Bitmap.CompressFormat.JPEG, quality, stream)) {
+                    throw new IOException("Failed to save bitmap.");
+                }
+            }
+
+            return uris[index].toString();
+        });
+
+        /* publish written records and delete failed ones in a single batch */
+        try {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(items.size());
+
+            for (int i = 0; i < uris.length; i++) {
+                if (uris[i] == null) {
+                    continue;
+                }
+
+                if (results.get(i).isSuccess()) {
+                    operations.add(ContentProviderOperation.newUpdate(uris[i])
+                            .withValue(MediaStore.Images.Media.IS_PENDING, 0)
+                            .build());
+                } else {
+                    operations.add(ContentProviderOperation.newDelete(uris[i]).build());
+                }
+            }
+
+            resolver.applyBatch(MediaStore.AUTHORITY, operations);
+        } catch (Exception e) {
+            Log.e(ImageBatch.class.getSimpleName(), e.getMessage(), e);
+
+            rollback(resolver, uris);
+            fail(results, e);
+        }
+    }
+
+    private static void insertFiles(Context context, List<Item> items, List<Result> results, int quality) {
+        /* there is no pending state before Q, each image is written straight to its public file */
+        write(items, results, (index, item) -> {
+            String uri = ImageHelper.insertImage(context, item.bitmap, item.title, quality);
+
+            if (uri == null) {
+                throw new IOException("Failed to save bitmap.");
+            }
+
+            return uri;
+        });
+    }
+
+    private static void write(List<Item> items, List<Result> results, ItemWriter writer) {
+        int writers = Math.max(1, Math.min(items.size(), Math.min(MAX_WRITERS, Runtime.getRuntime().availableProcessors())));
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+
+        try {
+            List<Future<String>> futures = new ArrayList<>(items.size());
+
+            for (int i = 0; i < items.size(); i++) {
+                final int index = i;
+                futures.add(executor.submit(() -> writer.write(index, items.get(index))));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.get(i).uri = futures.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    /* writes still running are cancelled below, their records are not published */
+                    fail(results.subList(i, results.size()), e);
+                    return;
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+
+                    results.get(i).error = cause instanceof Exception ? (Exception) cause : e;
+                    Log.e(ImageBatch.class.getSimpleName(), cause.getMessage(), cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private static void rollback(ContentResolver resolver, Uri[] uris) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(uris.length);
+
+        for (Uri uri : uris) {
+            if (uri != null) {
+                operations.add(ContentProviderOperation.newDelete(uri).build());
+            }
+        }
+
+        try {
+            resolver.applyBatch(MediaStore.AUTHORITY, operations);
+        } catch (Exception e) {
+            Log.e(ImageBatch.class.getSimpleName(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Delete the pending records of items created since started (seconds), for a batch insert that failed
+     * partway and returned no uris.
+     */
+    @RequiresApi(Build.VERSION_CODES.Q)
+    @SuppressWarnings("deprecation")
+    private static void rollbackPending(Context context, List<Item> items, long started) {
+        Set<String> names = new HashSet<>();
+
+        for (Item item : items) {
+            // MediaStore appends the extension of the MIME type to DISPLAY_NAME
+            names.add(item.title);
+            names.add(item.title + ".jpg");
+        }
+
+        Uri collection = MediaStoreStorage.DEFAULT.getCollection();
+        List<Uri> created = new ArrayList<>();
+
+        try (Cursor cursor = context.getContentResolver().query(MediaStore.setIncludePending(collection),
+                new String[] { MediaStore.Images.Media._ID, MediaStore.Images.Media.DISPLAY_NAME },
+                MediaStore.Images.Media.IS_PENDING + " = 1 AND " + MediaStore.Images.Media.OWNER_PACKAGE_NAME + " = ? AND "
+                        + MediaStore.Images.Media.DATE_ADDED + " >= ?",
+                new String[] { context.getPackageName(), String.valueOf(started - 1) }, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                if (names.contains(cursor.getString(1))) {
+                    created.add(ContentUris.withAppendedId(collection, cursor.getLong(0)));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(ImageBatch.class.getSimpleName(), e.getMessage(), e);
+        }
+
+        rollback(context.getContentResolver(), created.toArray(new Uri[0]));
+    }
+
+    private static void fail(List<Result> results, Exception e) {
+        for (Result result : results) {
+            result.uri = null;
+            result.error = e;
+        }
+    }
+
+    private interface ItemWriter {
+        String write(int index, @NonNull Item item) throws Exception;
+    }
+}
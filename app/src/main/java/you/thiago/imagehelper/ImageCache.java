@@ -0,0 +1,54 @@
+package you.thiago.imagehelper;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * In memory cache of generated bitmaps (thumbnails, video frames), bounded by their size in bytes.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageCache {
+
+    /* fraction of the heap used by the cache */
+    private static final int HEAP_FRACTION = 16;
+
+    private static final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / HEAP_FRACTION)) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    @Nullable
+    public static Bitmap get(@NonNull String key) {
+        Bitmap bitmap = cache.get(key);
+
+        if (bitmap != null && bitmap.isRecycled()) {
+            cache.remove(key);
+            return null;
+        }
+
+        return bitmap;
+    }
+
+    public static void put(@NonNull String key, @Nullable Bitmap bitmap) {
+        if (bitmap != null) {
+            cache.put(key, bitmap);
+        }
+    }
+
+    public static void remove(@NonNull String key) {
+        cache.remove(key);
+    }
+
+    public static void trimToSize(int maxBytes) {
+        cache.trimToSize(maxBytes);
+    }
+
+    public static void clear() {
+        cache.evictAll();
+    }
+}
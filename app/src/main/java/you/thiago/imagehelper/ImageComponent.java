@@ -7,8 +7,8 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
-import android.os.Environment;
 import android.provider.MediaStore;
+import android.util.Log;
 import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
@@ -20,10 +20,11 @@ import com.bumptech.glide.load.engine.DiskCacheStrategy;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.Objects;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import you.thiago.imagehelper.core.Base64Sink;
 
 /**
  * Component to handle IMG implementations
@@ -50,12 +51,16 @@ public class ImageComponent {
     private Bitmap imgBitmap;
     private String imgUri;
 
+    private ImageStorage storage = ImageStorage.mediaStore();
+
     private final Context context;
     private final ImageView imgView;
 
     public ImageComponent(Context context, ImageView imgView) {
         this.context = context;
         this.imgView = imgView;
+
+        ImageProfiles.get(context);
     }
 
     public ImageComponent clear() {
@@ -110,21 +115,22 @@ public class ImageComponent {
         return this;
     }
 
+    public ImageStorage getStorage() {
+        return storage;
+    }
+
+    public ImageComponent setStorage(@NonNull ImageStorage storage) {
+        this.storage = storage;
+        return this;
+    }
+
     public String getImageTitle() {
-        String timeStamp = new SimpleDateFormat("yyyyMMddhhmmss", Locale.US).format(new Date());
-        return "img_" + timeStamp;
+        return ImageNames.next();
     }
 
     public ImageComponent createImageFile() throws IOException {
-        File storageDir = Objects.requireNonNull(context.getExternalFilesDir(Environment.DIRECTORY_PICTURES));
-
         imgTitle = getImageTitle();
-
-        if (!storageDir.exists() && !storageDir.mkdir()) {
-            throw  new IOException(context.getString(R.string.img_dir_not_found));
-        }
-
-        imgFile = File.createTempFile(imgTitle, ".jpeg", storageDir);
+        imgFile = ImageNames.createImageFile(context, imgTitle);
 
         return this;
     }
@@ -142,11 +148,25 @@ public class ImageComponent {
     }
 
     public static String getBitmapBase64(Bitmap bitmap, int width, int height, int quality) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-            return ImageHelper.toBase64(bitmap, Math.min(width, LOWER_IMG_MAX_WIDTH), Math.min(height, LOWER_IMG_MAX_HEIGHT), Math.min(quality, LOWER_IMG_QUALITY));
-        }
+        ImageProfiles.Profile profile = ImageProfiles.getCurrent();
+
+        return ImageHelper.toBase64(bitmap, profile.getWidth(width), profile.getHeight(height), profile.getQuality(quality));
+    }
+
+    public static String getBitmapBase64(Bitmap bitmap, int width, int height, int quality, int maxBytes) {
+        ImageProfiles.Profile profile = ImageProfiles.getCurrent();
+
+        return ImageHelper.toBase64(bitmap, profile.getWidth(width), profile.getHeight(height), profile.getQuality(quality), maxBytes);
+    }
 
-        return ImageHelper.toBase64(bitmap, width, height, quality);
+    public void writeBitmapBase64(@NonNull OutputStream sink, @NonNull Base64Sink.LineBreak lineBreak) throws IOException {
+        ImageComponent.writeBitmapBase64(imgBitmap, DEFAULT_IMG_MAX_WIDTH, DEFAULT_IMG_MAX_HEIGHT, DEFAULT_IMG_QUALITY, sink, lineBreak);
+    }
+
+    public static void writeBitmapBase64(Bitmap bitmap, int width, int height, int quality, @NonNull OutputStream sink, @NonNull Base64Sink.LineBreak lineBreak) throws IOException {
+        ImageProfiles.Profile profile = ImageProfiles.getCurrent();
+
+        ImageHelper.writeBase64(bitmap, profile.getWidth(width), profile.getHeight(height), profile.getQuality(quality), sink, lineBreak);
     }
 
     public String getFileBase64() {
@@ -165,6 +185,18 @@ public class ImageComponent {
         return ImageHelper.toBase64(context, file, width, height, quality);
     }
 
+    public static String getFileBase64(Context context, @NonNull File file, int width, int height, int quality, int maxBytes) {
+        return ImageHelper.toBase64(context, file, width, height, quality, maxBytes);
+    }
+
+    public boolean writeFileBase64(@NonNull OutputStream sink) throws IOException {
+        return ImageComponent.writeFileBase64(context, imgFile, DEFAULT_IMG_MAX_WIDTH, DEFAULT_IMG_MAX_HEIGHT, DEFAULT_IMG_QUALITY, sink);
+    }
+
+    public static boolean writeFileBase64(Context context, @NonNull File file, int width, int height, int quality, @NonNull OutputStream sink) throws IOException {
+        return ImageHelper.writeBase64(context, file, width, height, quality, sink);
+    }
+
     public Bitmap getBitmapFromUri() {
         return ImageComponent.getBitmapFromUri(context, imgUri);
     }
@@ -197,6 +229,32 @@ public class ImageComponent {
         return base64Image;
     }
 
+    /**
+     * Same as {@link #getUriBase64()}, streamed into sink instead of returned as a String.
+     *
+     * @return false if the uri has no path (nothing is written)
+     */
+    public boolean writeUriBase64(@NonNull OutputStream sink, @NonNull Base64Sink.LineBreak lineBreak) throws IOException {
+        return ImageComponent.writeUriBase64(context, imgUri, sink, lineBreak);
+    }
+
+    public static boolean writeUriBase64(Context context, String uriString, @NonNull OutputStream sink) throws IOException {
+        return ImageComponent.writeUriBase64(context, uriString, sink, Base64Sink.LineBreak.NEWLINE);
+    }
+
+    public static boolean writeUriBase64(Context context, String uriString, @NonNull OutputStream sink, @NonNull Base64Sink.LineBreak lineBreak) throws IOException {
+        Uri uri = Uri.parse(uriString);
+
+        if (uri.getPath() == null) {
+            return false;
+        }
+
+        Bitmap image = ImageHelper.getImageBitmap(context, uri);
+        ImageComponent.writeBitmapBase64(image, DEFAULT_IMG_MAX_WIDTH, DEFAULT_IMG_MAX_HEIGHT, DEFAULT_IMG_QUALITY, sink, lineBreak);
+
+        return true;
+    }
+
     public static Bitmap getBase64ToBitmap(String base64String) {
         return ImageHelper.toBitmap(base64String);
     }
@@ -213,7 +271,7 @@ public class ImageComponent {
                 imgTitle = getImageTitle();
             }
 
-            ImageHelper.Image image = ImageHelper.resizeImage(context, uriFile, imgTitle, imgMaxWidth, imgMaxHeight, quality);
+            ImageHelper.Image image = ImageHelper.resizeImage(context, uriFile, imgTitle, imgMaxWidth, imgMaxHeight, quality, 0, storage);
 
             imgBitmap = image.bitmap;
             imgUri = image.uri;
@@ -226,14 +284,23 @@ public class ImageComponent {
         return getResizedBitmap(context, uriFile, DEFAULT_IMG_MAX_WIDTH, DEFAULT_IMG_MAX_HEIGHT, DEFAULT_IMG_QUALITY);
     }
 
+    /**
+     * Concurrent calls for the same uri and params share a single resize (and a single stored copy),
+     * see {@link ImageRequests}.
+     */
     public static Bitmap getResizedBitmap(Context context, @Nullable Uri uriFile, int imgMaxWidth, int imgMaxHeight, int quality) {
         Bitmap bitmap = null;
 
         if (uriFile != null) {
-            String timeStamp = new SimpleDateFormat("yyyyMMddhhmmss", Locale.US).format(new Date());
-            String title = "img_" + timeStamp;
-
-            bitmap = ImageHelper.resizeImage(context, uriFile, title, imgMaxWidth, imgMaxHeight, quality).bitmap;
+            ImageRequests.Handle<ImageHelper.Image> request = ImageRequests.resize(context, uriFile, imgMaxWidth, imgMaxHeight, quality, 0, ImageStorage.mediaStore());
+
+            try {
+                bitmap = request.get().bitmap;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                Log.e(ImageComponent.class.getSimpleName(), e.getMessage(), e);
+            }
         }
 
         return bitmap;
@@ -271,6 +338,17 @@ public class ImageComponent {
         return ImageHelper.scaleDown(thumbBitmap, thumbWidth, thumbHeight);
     }
 
+    public static Bitmap getThumbBitmap(Context context, Uri uri) {
+        return ImageComponent.getThumbBitmap(context, uri, DEFAULT_THUMB_WIDTH, DEFAULT_THUMB_HEIGHT);
+    }
+
+    /**
+     * Thumbnail from the provider (or the EXIF data) when available, decoding the image only as a last resort.
+     */
+    public static Bitmap getThumbBitmap(Context context, Uri uri, int thumbWidth, int thumbHeight) {
+        return ImageThumbnails.getThumbnail(context, uri, thumbWidth, thumbHeight);
+    }
+
     public static Bitmap getThumbFromVideo(String file) {
         return ImageComponent.getThumbFromVideo(file, DEFAULT_THUMB_WIDTH, DEFAULT_THUMB_HEIGHT);
     }
@@ -294,12 +372,8 @@ public class ImageComponent {
     public ImageComponent storeImg(int maxWidth, int maxHeight, int quality) {
         Uri uri = Uri.fromFile(getImgFile());
 
-        ImageHelper.Image image;
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-            image = ImageHelper.createBitmap(context, uri, imgTitle, Math.min(maxWidth, LOWER_IMG_MAX_WIDTH), Math.min(maxHeight, LOWER_IMG_MAX_HEIGHT), Math.min(quality, LOWER_IMG_QUALITY));
-        } else {
-            image = ImageHelper.createBitmap(context, uri, imgTitle, maxWidth, maxHeight, quality);
-        }
+        ImageProfiles.Profile profile = ImageProfiles.get(context);
+        ImageHelper.Image image = ImageHelper.createBitmap(context, uri, imgTitle, profile.getWidth(maxWidth), profile.getHeight(maxHeight), profile.getQuality(quality), storage);
 
         imgBitmap = image.bitmap;
         imgUri = image.uri;
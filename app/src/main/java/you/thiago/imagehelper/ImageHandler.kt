@@ -8,8 +8,8 @@ import android.graphics.BitmapFactory
 import android.graphics.ImageDecoder
 import android.net.Uri
 import android.os.Build
-import android.os.Environment
 import android.provider.MediaStore
+import android.util.Log
 import android.widget.ImageView
 import androidx.annotation.DrawableRes
 import androidx.annotation.IdRes
@@ -24,21 +24,58 @@ import com.bumptech.glide.request.RequestOptions
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.runInterruptible
+import kotlinx.coroutines.withContext
+import you.thiago.imagehelper.core.Base64Sink
 import java.io.File
 import java.io.IOException
-import java.text.SimpleDateFormat
-import java.util.*
+import java.io.OutputStream
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.atomic.AtomicReference
 import kotlin.math.min
 
 @Suppress("MemberVisibilityCanBePrivate", "unused")
 class ImageHandler private constructor(val context: Context) {
 
-    var imageFile: File? = null
-    var imageBitmap: Bitmap? = null
-    var imageUri: String? = null
+    /**
+     * Immutable snapshot of a request output. Each request builds its own result and publishes it as a whole,
+     * so concurrent requests never see each other half-written fields.
+     */
+    data class Result(val file: File? = null, val bitmap: Bitmap? = null, val uri: String? = null, val title: String? = null)
 
-    private var imageTitle = ""
-        get() = field.takeIf { it.isNotBlank() } ?: generateFileName()
+    private val state = AtomicReference(Result())
+
+    var imageFile: File?
+        get() = state.get().file
+        set(value) = update { it.copy(file = value) }
+
+    var imageBitmap: Bitmap?
+        get() = state.get().bitmap
+        set(value) = update { it.copy(bitmap = value) }
+
+    var imageUri: String?
+        get() = state.get().uri
+        set(value) = update { it.copy(uri = value) }
+
+    val result: Result
+        get() = state.get()
+
+    @Volatile
+    var storage: ImageStorage = ImageStorage.mediaStore()
+
+    /* reuse the output of images resized before with the same parameters (see [ImageIndex]) */
+    @Volatile
+    var deduplicate: Boolean = false
+
+    /* placeholder bound to this handler context, never shared across contexts */
+    private val loading: CircularProgressDrawable by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        CircularProgressDrawable(context).also {
+            it.strokeWidth = 5f
+            it.centerRadius = 30f
+            it.setColorSchemeColors(ContextCompat.getColor(context, R.color.color_secondary))
+            it.start()
+        }
+    }
 
     companion object {
         const val DEFAULT_IMG_MAX_WIDTH = 1280
@@ -55,32 +92,37 @@ class ImageHandler private constructor(val context: Context) {
         private const val APP_FACING_LENS = "android.intent.extras.LENS_FACING_FRONT"
         private const val APP_FACING_CAMERA = "android.intent.extras.CAMERA_FACING"
 
-        private var loading: CircularProgressDrawable? = null
-
         @JvmStatic
         fun with(context: Context): ImageHandler {
             return ImageHandler(context)
         }
     }
 
-    fun getBitmapBase64(bitmap: Bitmap? = imageBitmap, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY): String? {
+    fun getBitmapBase64(bitmap: Bitmap? = imageBitmap, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY, maxBytes: Int = 0): String? {
         if (bitmap == null) {
             return null
         }
 
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-            return ImageHelper.toBase64(bitmap, min(width, LOWER_IMG_MAX_WIDTH), min(height, LOWER_IMG_MAX_HEIGHT), min(quality, LOWER_IMG_QUALITY))
-        }
+        val profile = ImageProfiles.get(context)
 
-        return ImageHelper.toBase64(bitmap, width, height, quality)
+        return ImageHelper.toBase64(bitmap, profile.getWidth(width), profile.getHeight(height), profile.getQuality(quality), maxBytes)
     }
 
-    fun getFileBase64(file: File? = imageFile, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY): String? {
+    fun getFileBase64(file: File? = imageFile, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY, maxBytes: Int = 0): String? {
         if (file == null) {
             return null
         }
 
-        return ImageHelper.toBase64(context, file, min(width, LOWER_IMG_MAX_WIDTH), min(height, LOWER_IMG_MAX_HEIGHT), min(quality, LOWER_IMG_QUALITY))
+        return ImageHelper.toBase64(context, file, min(width, LOWER_IMG_MAX_WIDTH), min(height, LOWER_IMG_MAX_HEIGHT), min(quality, LOWER_IMG_QUALITY), maxBytes)
+    }
+
+    @Throws(IOException::class)
+    fun writeFileBase64(sink: OutputStream, file: File? = imageFile, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY): Boolean {
+        if (file == null) {
+            return false
+        }
+
+        return ImageHelper.writeBase64(context, file, min(width, LOWER_IMG_MAX_WIDTH), min(height, LOWER_IMG_MAX_HEIGHT), min(quality, LOWER_IMG_QUALITY), sink)
     }
 
     @Throws(IOException::class)
@@ -98,6 +140,35 @@ class ImageHandler private constructor(val context: Context) {
         return null
     }
 
+    @Throws(IOException::class)
+    fun writeBitmapBase64(sink: OutputStream, bitmap: Bitmap? = imageBitmap, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY, lineBreak: Base64Sink.LineBreak = Base64Sink.LineBreak.NEWLINE): Boolean {
+        if (bitmap == null) {
+            return false
+        }
+
+        val profile = ImageProfiles.get(context)
+
+        ImageHelper.writeBase64(bitmap, profile.getWidth(width), profile.getHeight(height), profile.getQuality(quality), sink, lineBreak)
+
+        return true
+    }
+
+    /**
+     * Same as [getUriBase64], streamed into sink in fixed size chunks instead of returned as a String.
+     */
+    @Throws(IOException::class)
+    fun writeUriBase64(sink: OutputStream, uriString: String? = imageUri, lineBreak: Base64Sink.LineBreak = Base64Sink.LineBreak.NEWLINE): Boolean {
+        if (uriString == null) {
+            return false
+        }
+
+        Uri.parse(uriString)?.takeIf { it.path != null }?.also { uri ->
+            return writeBitmapBase64(sink, getImageBitmap(uri), lineBreak = lineBreak)
+        }
+
+        return false
+    }
+
     @Throws(IOException::class)
     @Suppress("DEPRECATION")
     fun getImageBitmap(uri: Uri): Bitmap {
@@ -129,6 +200,13 @@ class ImageHandler private constructor(val context: Context) {
         return ImageHelper.scaleDown(getBase64ToBitmap(base64), thumbWidth, thumbHeight)
     }
 
+    /**
+     * Thumbnail from the provider (or the EXIF data) when available, decoding the image only as a last resort.
+     */
+    fun getThumbBitmap(uri: Uri, thumbWidth: Int = DEFAULT_THUMB_WIDTH, thumbHeight: Int = DEFAULT_THUMB_HEIGHT): Bitmap? {
+        return ImageThumbnails.getThumbnail(context, uri, thumbWidth, thumbHeight)
+    }
+
     fun getThumbFromVideo(file: String, thumbWidth: Int = DEFAULT_THUMB_WIDTH, thumbHeight: Int = DEFAULT_THUMB_HEIGHT): Bitmap? {
         return ImageHelper.getThumbFromVideo(file, thumbWidth, thumbHeight)
     }
@@ -138,9 +216,7 @@ class ImageHandler private constructor(val context: Context) {
     }
 
     fun nullifyMemory() {
-        imageFile = null
-        imageBitmap = null
-        imageUri = null
+        state.set(Result())
     }
 
     fun scaleDown(bitmap: Bitmap? = imageBitmap, maxWidth: Int = DEFAULT_IMG_MAX_WIDTH, maxHeight: Int = DEFAULT_IMG_MAX_HEIGHT): Bitmap? {
@@ -153,26 +229,19 @@ class ImageHandler private constructor(val context: Context) {
 
     @Throws(IOException::class)
     fun createImageFile(): ImageHandler {
-        nullifyMemory()
-
-        context.getExternalFilesDir(Environment.DIRECTORY_PICTURES)?.also { storageDir ->
-            if (!storageDir.exists() && !storageDir.mkdir()) {
-                throw IOException(context.getString(R.string.img_dir_not_found))
-            }
-
-            imageFile = File.createTempFile(generateFileName(), ".jpeg", storageDir)
-        }
-
+        state.set(newImageFile())
         return this
     }
 
     fun createResizedBitmap(uri: Uri, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY): Bitmap? {
-        ImageHelper.resizeImage(context, uri, imageTitle, width, height, quality).also {
-            imageBitmap = it.bitmap
-            imageUri = it.uri
-        }
+        return publish(resize(uri, width, height, quality)).bitmap
+    }
 
-        return imageBitmap
+    /**
+     * Suspending [createResizedBitmap], shares the work with identical requests running at the same time.
+     */
+    suspend fun awaitResizedBitmap(uri: Uri, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY): Bitmap? {
+        return publish(resizeAwait(uri, width, height, quality)).bitmap
     }
 
     fun createResizedBitmapFromFile(file: File? = imageFile, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY): ImageHandler {
@@ -181,34 +250,51 @@ class ImageHandler private constructor(val context: Context) {
         }
 
         ImageHelper.resizeImage(context, Uri.fromFile(file), width, height, quality).also {
-            imageBitmap = it.bitmap
-            imageUri = it.uri
+            publish(Result(bitmap = it.bitmap, uri = it.uri))
         }
 
         return this
     }
 
     fun storeImage(width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY): ImageHandler {
-        return storeImage(imageFile, width, height, quality)
+        val current = state.get()
+
+        publish(store(current.file, current.title, width, height, quality))
+
+        return this
     }
 
     fun storeImage(file: File?, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY): ImageHandler {
-        if (file == null) {
-            return this
-        }
+        publish(store(file, null, width, height, quality))
+        return this
+    }
 
-        val uri = Uri.fromFile(file)
+    /**
+     * Queue the resize of uri into [storage] on [ImageJobs], it goes on after the activity is gone (and after
+     * process death, once [ImageJobs.get] is called again). Follow it with [ImageJobs.getJob] or a listener.
+     * The job is journaled on [Dispatchers.IO].
+     */
+    suspend fun enqueueResize(uri: Uri, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY, maxBytes: Int = 0): Long {
+        val profile = ImageProfiles.get(context)
 
-        val image = if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-            ImageHelper.createBitmap(context, uri, imageTitle, min(width, LOWER_IMG_MAX_WIDTH), min(height, LOWER_IMG_MAX_HEIGHT), min(quality, LOWER_IMG_QUALITY))
-        } else {
-            ImageHelper.createBitmap(context, uri, imageTitle, width, height, quality)
+        return withContext(Dispatchers.IO) {
+            ImageJobs.get(context).enqueueResize(uri, profile.getWidth(width), profile.getHeight(height), profile.getQuality(quality), maxBytes, storage, false)
+        }
+    }
+
+    /**
+     * Same as [storeImage] on [ImageJobs]. With deleteFile the captured file is removed once stored.
+     */
+    suspend fun enqueueStore(file: File? = imageFile, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY, deleteFile: Boolean = false): Long? {
+        if (file == null) {
+            return null
         }
 
-        imageBitmap = image.bitmap
-        imageUri = image.uri
+        val profile = ImageProfiles.get(context)
 
-        return this
+        return withContext(Dispatchers.IO) {
+            ImageJobs.get(context).enqueueResize(Uri.fromFile(file), profile.getWidth(width), profile.getHeight(height), profile.getQuality(quality), 0, storage, deleteFile)
+        }
     }
 
     fun configCameraIntent(facingFront: Boolean = false): Intent {
@@ -244,23 +330,7 @@ class ImageHandler private constructor(val context: Context) {
     }
 
     fun loadImage(imageView: ImageView, uri: Uri? = null, bitmap: Bitmap? = imageBitmap, @DrawableRes errorPlaceholder: Int? = null) {
-        var glide = if (uri != null || imageUri != null) {
-            Glide.with(context).load(uri ?: Uri.parse(imageUri))
-        } else {
-            Glide.with(context).load(bitmap)
-        }
-
-        glide = glide.diskCacheStrategy(DiskCacheStrategy.NONE).fitCenter()
-
-        getLoadingDrawable()?.also { loading ->
-            glide = glide.placeholder(loading)
-        }
-
-        if (errorPlaceholder != null) {
-            glide = glide.apply(RequestOptions().error(errorPlaceholder).centerCrop())
-        }
-
-        glide.into(imageView)
+        load(imageView, uri ?: imageUri?.let { Uri.parse(it) }, bitmap, errorPlaceholder)
     }
 
     fun build(imageView: ImageView, uri: Uri? = null, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY, @DrawableRes errorPlaceholder: Int? = null, action: ((uri: String) -> Unit)? = null) {
@@ -273,15 +343,17 @@ class ImageHandler private constructor(val context: Context) {
 
     fun build(scope: CoroutineScope, imageView: ImageView, uri: Uri? = null, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY, @DrawableRes errorPlaceholder: Int? = null, action: ((uri: String) -> Unit)? = null) {
         scope.launch(Dispatchers.IO) {
-            if (uri != null) {
-                createResizedBitmap(uri, width, height, quality)
+            val result = if (uri != null) {
+                resizeAwait(uri, width, height, quality, loadBitmap = false)
             } else {
-                storeImage(width, height, quality)
+                state.get().let { store(it.file, it.title, width, height, quality) }
             }
 
+            publish(result)
+
             scope.launch(Dispatchers.Main) {
-                loadImage(imageView, errorPlaceholder = errorPlaceholder)
-                action?.invoke(imageUri ?: "")
+                load(imageView, result.uri?.let { Uri.parse(it) }, result.bitmap, errorPlaceholder)
+                action?.invoke(result.uri ?: "")
             }
         }
     }
@@ -296,14 +368,135 @@ class ImageHandler private constructor(val context: Context) {
 
     fun createIntentForImageFile(scope: CoroutineScope, facingFront: Boolean = false, action: (intent: Intent) -> Unit) {
         scope.launch(Dispatchers.IO) {
-            createImageFile()
+            val result = newImageFile()
+            state.set(result)
 
             scope.launch(Dispatchers.Main) {
-                action.invoke(configCameraIntent(facingFront))
+                action.invoke(configCameraIntent(getUriFromFile(result.file), facingFront))
+            }
+        }
+    }
+
+    /**
+     * Capture session writing into [storage], with the output file allocated ahead and processed as soon as the
+     * camera finishes writing it (see [CaptureSession]).
+     */
+    fun openCaptureSession(callback: CaptureSession.Callback, width: Int = DEFAULT_IMG_MAX_WIDTH, height: Int = DEFAULT_IMG_MAX_HEIGHT, quality: Int = DEFAULT_IMG_QUALITY): CaptureSession {
+        return CaptureSession.open(context, callback).setSize(width, height, quality).setStorage(storage)
+    }
+
+    @Throws(IOException::class)
+    private fun newImageFile(): Result {
+        val title = generateFileName()
+        return Result(file = ImageNames.createImageFile(context, title), title = title)
+    }
+
+    /**
+     * Resize through [ImageRequests], so identical concurrent requests share one resize and one stored copy.
+     */
+    private fun resize(uri: Uri, width: Int, height: Int, quality: Int): Result {
+        val request = newRequest(uri, width, height, quality)
+
+        return try {
+            toResult(request.get(), true)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            Result()
+        } catch (e: ExecutionException) {
+            Log.e(ImageHandler::class.java.simpleName, e.message, e)
+            Result()
+        }
+    }
+
+    /**
+     * Same as [resize], waiting without blocking the caller: cancelling the coroutine only drops its own
+     * waiter, the shared resize goes on while other requests wait on it.
+     */
+    private suspend fun resizeAwait(uri: Uri, width: Int, height: Int, quality: Int, loadBitmap: Boolean = true): Result {
+        val request = newRequest(uri, width, height, quality)
+
+        return try {
+            runInterruptible(Dispatchers.IO) { toResult(request.get(), loadBitmap) }
+        } catch (e: ExecutionException) {
+            Log.e(ImageHandler::class.java.simpleName, e.message, e)
+            Result()
+        }
+    }
+
+    private fun newRequest(uri: Uri, width: Int, height: Int, quality: Int): ImageRequests.Handle<ImageHelper.Image> {
+        return if (deduplicate) {
+            ImageRequests.resizeOnce(context, uri, width, height, quality, 0, storage)
+        } else {
+            ImageRequests.resize(context, uri, width, height, quality, 0, storage)
+        }
+    }
+
+    /**
+     * Reused outputs come without bitmap, it is read from the (already resized) output only when loadBitmap is set.
+     */
+    private fun toResult(image: ImageHelper.Image, loadBitmap: Boolean): Result {
+        val bitmap = if (image.reused && image.bitmap == null && loadBitmap && image.uri != null) {
+            try {
+                ImageHelper.getImageBitmap(context, Uri.parse(image.uri))
+            } catch (e: IOException) {
+                Log.e(ImageHandler::class.java.simpleName, e.message, e)
+                null
+            }
+        } else {
+            image.bitmap
+        }
+
+        return Result(bitmap = bitmap, uri = image.uri)
+    }
+
+    private fun store(file: File?, title: String?, width: Int, height: Int, quality: Int): Result {
+        if (file == null) {
+            return Result()
+        }
+
+        val uri = Uri.fromFile(file)
+        val imageTitle = title ?: generateFileName()
+
+        val profile = ImageProfiles.get(context)
+        val image = ImageHelper.createBitmap(context, uri, imageTitle, profile.getWidth(width), profile.getHeight(height), profile.getQuality(quality), storage)
+
+        return Result(file = file, bitmap = image.bitmap, uri = image.uri, title = imageTitle)
+    }
+
+    /**
+     * Publish bitmap/uri of a finished request, keeping the file of the current state.
+     */
+    private fun publish(result: Result): Result {
+        update { it.copy(bitmap = result.bitmap, uri = result.uri, file = result.file ?: it.file, title = result.title ?: it.title) }
+        return result
+    }
+
+    private inline fun update(transform: (Result) -> Result) {
+        while (true) {
+            val current = state.get()
+
+            if (state.compareAndSet(current, transform(current))) {
+                return
             }
         }
     }
 
+    private fun load(imageView: ImageView, uri: Uri?, bitmap: Bitmap?, @DrawableRes errorPlaceholder: Int?) {
+        var glide = if (uri != null) {
+            Glide.with(context).load(uri)
+        } else {
+            Glide.with(context).load(bitmap)
+        }
+
+        glide = glide.diskCacheStrategy(DiskCacheStrategy.NONE).fitCenter().placeholder(loading)
+
+        if (errorPlaceholder != null) {
+            glide = glide.apply(RequestOptions().error(errorPlaceholder).centerCrop())
+        }
+
+        glide.into(imageView)
+    }
+
     private fun setCameraPosition(intent: Intent, facingFront: Boolean) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
             intent.putExtra(APP_FACING_LENS, 1.takeIf { facingFront } ?: 0)
@@ -332,24 +525,7 @@ class ImageHandler private constructor(val context: Context) {
         }
     }
 
-    @Synchronized
-    private fun getLoadingDrawable(): CircularProgressDrawable? {
-        if (loading == null) {
-            loading = CircularProgressDrawable(context).also {
-                it.strokeWidth = 5f
-                it.centerRadius = 30f
-                it.setColorSchemeColors(ContextCompat.getColor(context, R.color.color_secondary))
-                it.start()
-            }
-        }
-
-        return loading
-    }
-
-    @Synchronized
     private fun generateFileName(): String {
-        return ("img_" + SimpleDateFormat("yyyyMMddhhmmss", Locale.US).format(Date())).also {
-            imageTitle = it
-        }
+        return ImageNames.next()
     }
-}
\ No newline at end of file
+}
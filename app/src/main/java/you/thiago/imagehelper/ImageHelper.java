@@ -1,7 +1,5 @@
 package you.thiago.imagehelper;
 
-import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -10,7 +8,6 @@ import android.graphics.Matrix;
 import android.media.ThumbnailUtils;
 import android.net.Uri;
 import android.os.Build;
-import android.os.Environment;
 import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.util.Base64;
@@ -21,23 +18,46 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.exifinterface.media.ExifInterface;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileDescriptor;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Objects;
 
+import you.thiago.imagehelper.core.Base64Sink;
+import you.thiago.imagehelper.core.ImageSizing;
+import you.thiago.imagehelper.core.Orientation;
+import you.thiago.imagehelper.core.ParallelKernels;
+import you.thiago.imagehelper.core.PixelKernels;
+
 @SuppressWarnings({"unused", "WeakerAccess"})
 public class ImageHelper {
 
+    public static final int DEFAULT_MIN_QUALITY = 30;
+
+    private static final float MAX_BYTES_SCALE_STEP = 0.75f;
+    private static final int MAX_BYTES_SCALE_ATTEMPTS = 6;
+    private static final int MAX_BYTES_MIN_DIMENSION = 64;
+
     public static class Image {
 
         public String uri;
         public Bitmap bitmap;
 
+        @Nullable
+        public Compression compression;
+
+        /* output of a previous request for the same content and parameters, bitmap is not loaded */
+        public boolean reused;
+
+        /* why the request failed (uri falls back to the source when only the store failed), null on success */
+        @Nullable
+        public Exception error;
+
         public Image() {
             uri = null;
             bitmap = null;
@@ -76,25 +96,58 @@ public class ImageHelper {
         }
 
         private void calculate(int maxWidth, int maxHeight) {
-            // calculate ratios
-            float imgRatio = (float) width / (float) height;
-            float maxRatio = (float) maxWidth / (float) maxHeight;
-
-            // re-calculate img size
-            if (height > maxHeight || width > maxWidth) {
-                if (imgRatio < maxRatio) {
-                    imgRatio = (float) maxHeight / (float) height;
-                    width = (int) (imgRatio * width);
-                    height = maxHeight;
-                } else if (imgRatio > maxRatio) {
-                    imgRatio = (float) maxWidth / (float) width;
-                    height = (int) (imgRatio * height);
-                    width = maxWidth;
-                } else {
-                    height = maxHeight;
-                    width = maxWidth;
-                }
-            }
+            int[] size = ImageSizing.fit(width, height, maxWidth, maxHeight);
+
+            width = size[0];
+            height = size[1];
+        }
+    }
+
+    /**
+     * Result of a compression bounded by a max size in bytes.
+     * Holds the encoded JPEG in a direct buffer, so it can be written or encoded without compressing again.
+     */
+    public static class Compression {
+
+        public Bitmap bitmap;
+        public int quality;
+        public int iterations;
+        public boolean fits;
+
+        private final ByteBuffer data;
+
+        Compression(Bitmap bitmap, int quality, int iterations, boolean fits, ByteBuffer data) {
+            this.bitmap = bitmap;
+            this.quality = quality;
+            this.iterations = iterations;
+            this.fits = fits;
+            this.data = data;
+        }
+
+        public int size() {
+            return data.limit();
+        }
+
+        public byte[] toByteArray() {
+            byte[] bytes = new byte[size()];
+            getData().get(bytes);
+
+            return bytes;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            write(getData(), out);
+        }
+
+        /**
+         * Read only view of the encoded bytes, positioned at the start.
+         */
+        ByteBuffer getData() {
+            return data.asReadOnlyBuffer();
+        }
+
+        public String toBase64() {
+            return encodeBase64(getData());
         }
     }
 
@@ -111,34 +164,67 @@ public class ImageHelper {
     }
 
     public static Image createBitmap(Context context, Uri uri, String title, int width, int height, int quality) {
-        Image image = new Image();
+        return createBitmap(context, uri, title, width, height, quality, ImageStorage.mediaStore());
+    }
 
-        FileDescriptor fileDescriptor;
-        ParcelFileDescriptor parcelFileDescriptor;
+    public static Image createBitmap(Context context, Uri uri, String title, int width, int height, int quality, @NonNull ImageStorage storage) {
+        Image image = new Image();
+        ImageMetrics.Tracker metrics = ImageMetrics.start(uri);
 
         try {
-            parcelFileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+            ParcelFileDescriptor parcelFileDescriptor;
+
+            try (ImageMetrics.Section ignored = ImageMetrics.stage(metrics, ImageMetrics.Stage.OPEN)) {
+                parcelFileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+            }
 
             if (parcelFileDescriptor != null) {
-                fileDescriptor = parcelFileDescriptor.getFileDescriptor();
-                image.bitmap = BitmapFactory.decodeFileDescriptor(fileDescriptor);
-                parcelFileDescriptor.close();
+                try (ImageMetrics.Section section = ImageMetrics.stage(metrics, ImageMetrics.Stage.DECODE);
+                     ParcelFileDescriptor descriptor = parcelFileDescriptor) {
+                    image.bitmap = BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor());
+
+                    if (image.bitmap != null) {
+                        section.setSource(image.bitmap.getWidth(), image.bitmap.getHeight());
+                    }
+
+                    section.setSampleSize(1);
+                    section.setBytes(getByteCount(image.bitmap), -1);
+                }
             }
 
-            image.bitmap = scaleDown(image.bitmap, width, height);
+            if (image.bitmap == null) {
+                throw new IOException("Failed to decode image " + uri + ".");
+            }
+
+            try (ImageMetrics.Section section = ImageMetrics.stage(metrics, ImageMetrics.Stage.SCALE)) {
+                image.bitmap = scaleDown(image.bitmap, width, height);
+                section.setBytes(getByteCount(image.bitmap), -1);
+            }
+
+            float orientation;
+
+            try (ImageMetrics.Section ignored = ImageMetrics.stage(metrics, ImageMetrics.Stage.PROBE)) {
+                orientation = getOrientation(context, uri);
+            }
 
-            float orientation = getOrientation(context, uri);
             if (orientation > 0) {
-                image.bitmap = rotateImage(image.bitmap, orientation);
+                try (ImageMetrics.Section section = ImageMetrics.stage(metrics, ImageMetrics.Stage.ROTATE)) {
+                    image.bitmap = rotateImage(image.bitmap, orientation);
+                    section.setBytes(getByteCount(image.bitmap), -1);
+                }
             }
 
-            image.uri = insertImage(context, image.bitmap, title, quality);
+            try (ImageMetrics.Section ignored = ImageMetrics.stage(metrics, ImageMetrics.Stage.INSERT)) {
+                image.uri = insertImage(context, storage, image.bitmap, title, quality);
+            }
 
             if (image.uri == null) {
+                image.error = new IOException("Failed to store image " + title + ".");
                 image.uri = uri.toString();
             }
         } catch (Exception e) {
-            Log.e(ImageComponent.class.getSimpleName(), e.getMessage(), e);
+            Log.e(ImageHelper.class.getSimpleName(), e.getMessage(), e);
+            image.error = e;
         }
 
         return image;
@@ -149,131 +235,201 @@ public class ImageHelper {
     }
 
     public static Image resizeImage(Context context, Uri fileUri, @Nullable String title, int maxWidth, int maxHeight, int quality) {
+        return resizeImage(context, fileUri, title, maxWidth, maxHeight, quality, 0);
+    }
+
+    /**
+     * Resize image and, when maxBytes is greater than zero, lower the quality (and then the dimensions)
+     * until the encoded JPEG fits into maxBytes. The search result is reported on {@link Image#compression}.
+     */
+    public static Image resizeImage(Context context, Uri fileUri, @Nullable String title, int maxWidth, int maxHeight, int quality, int maxBytes) {
+        return resizeImage(context, fileUri, title, maxWidth, maxHeight, quality, maxBytes, ImageStorage.mediaStore());
+    }
+
+    /**
+     * Resize image and write it (when titled) into the given storage.
+     */
+    public static Image resizeImage(Context context, Uri fileUri, @Nullable String title, int maxWidth, int maxHeight, int quality, int maxBytes, @NonNull ImageStorage storage) {
         Image image = new Image();
+        ImageMetrics.Tracker metrics = ImageMetrics.start(fileUri);
 
         try {
             // config BitmapFactory to only read (don't load in memory)
             BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
             bitmapOptions.inJustDecodeBounds = true;
 
-            try (InputStream configStream = context.getContentResolver().openInputStream(fileUri)) {
-                BitmapFactory.decodeStream(configStream, null, bitmapOptions);
-
-                ImageSize imageSize = new ImageSize(bitmapOptions, maxWidth, maxHeight);
+            ImageProbe.Info info;
 
-                bitmapOptions.inSampleSize = calculateInSampleSize(bitmapOptions, imageSize.width, imageSize.height);
-                bitmapOptions.inJustDecodeBounds = false;
-                bitmapOptions.inTempStorage = new byte[16 * 1024];
+            try (ImageMetrics.Section ignored = ImageMetrics.stage(metrics, ImageMetrics.Stage.PROBE)) {
+                info = ImageProbe.probe(context, fileUri, metrics);
+            }
 
-                if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.M) {
-                    bitmapOptions.inDither = false;
-                }
-                if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.KITKAT) {
-                    bitmapOptions.inPurgeable = true;
-                    bitmapOptions.inInputShareable = true;
+            if (info != null && info.hasSize()) {
+                bitmapOptions.outWidth = info.width;
+                bitmapOptions.outHeight = info.height;
+            } else {
+                try (ImageMetrics.Section ignored = ImageMetrics.stage(metrics, ImageMetrics.Stage.BOUNDS);
+                     InputStream configStream = context.getContentResolver().openInputStream(fileUri)) {
+                    BitmapFactory.decodeStream(configStream, null, bitmapOptions);
                 }
+            }
 
-                // complete load bitmap
-                try (InputStream scaleStream = context.getContentResolver().openInputStream(fileUri)) {
-                    image.bitmap = BitmapFactory.decodeStream(scaleStream, null, bitmapOptions);
-                    image.bitmap = scaleDown(image.bitmap, maxWidth, maxHeight);
-                }
+            ImageSize imageSize = new ImageSize(bitmapOptions, maxWidth, maxHeight);
+
+            bitmapOptions.inSampleSize = calculateInSampleSize(bitmapOptions, imageSize.width, imageSize.height);
+            bitmapOptions.inJustDecodeBounds = false;
+            bitmapOptions.inTempStorage = PixelArena.get().getDecodeStorage();
+            bitmapOptions.inPreferredConfig = ImageProfiles.getCurrent().config;
+
+            if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.M) {
+                bitmapOptions.inDither = false;
+            }
+            if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.KITKAT) {
+                bitmapOptions.inPurgeable = true;
+                bitmapOptions.inInputShareable = true;
+            }
+
+            InputStream scaleStream;
+
+            try (ImageMetrics.Section section = ImageMetrics.stage(metrics, ImageMetrics.Stage.OPEN)) {
+                section.setSource(bitmapOptions.outWidth, bitmapOptions.outHeight);
+                section.setSampleSize(bitmapOptions.inSampleSize);
+
+                scaleStream = context.getContentResolver().openInputStream(fileUri);
+            }
+
+            // complete load bitmap
+            try (InputStream in = scaleStream; ImageMetrics.Section section = ImageMetrics.stage(metrics, ImageMetrics.Stage.DECODE)) {
+                image.bitmap = BitmapFactory.decodeStream(in, null, bitmapOptions);
+                section.setBytes(getByteCount(image.bitmap), -1);
+            }
+
+            if (image.bitmap == null) {
+                throw new IOException("Failed to decode image " + fileUri + ".");
+            }
 
-                float orientation = getOrientation(context, fileUri);
-                if (orientation > 0) {
+            try (ImageMetrics.Section section = ImageMetrics.stage(metrics, ImageMetrics.Stage.SCALE)) {
+                image.bitmap = scaleDown(image.bitmap, maxWidth, maxHeight);
+                section.setBytes(getByteCount(image.bitmap), -1);
+            }
+
+            float orientation = info != null && info.hasOrientation() ? info.getRotation() : getExifOrientation(context, fileUri);
+            if (orientation > 0) {
+                try (ImageMetrics.Section section = ImageMetrics.stage(metrics, ImageMetrics.Stage.ROTATE)) {
                     image.bitmap = rotateImage(image.bitmap, orientation);
+                    section.setBytes(getByteCount(image.bitmap), -1);
                 }
+            }
 
-                if (title != null) {
-                    image.uri = insertImage(context, image.bitmap, title, quality);
+            if (maxBytes > 0 && image.bitmap != null) {
+                try (ImageMetrics.Section section = ImageMetrics.stage(metrics, ImageMetrics.Stage.COMPRESS)) {
+                    image.compression = compress(image.bitmap, quality, maxBytes);
+                    image.bitmap = image.compression.bitmap;
+                    section.setBytes(getByteCount(image.bitmap), image.compression.size());
+                }
+            }
 
-                    if (image.uri == null) {
-                        image.uri = fileUri.toString();
+            if (title != null) {
+                try (ImageMetrics.Section section = ImageMetrics.stage(metrics, ImageMetrics.Stage.INSERT)) {
+                    if (image.compression != null) {
+                        image.uri = insertImage(context, storage, image.compression, title);
+                    } else {
+                        image.uri = insertImage(context, storage, image.bitmap, title, quality);
                     }
-                } else {
+
+                    section.setBytes(-1, image.compression != null ? image.compression.size() : -1);
+                }
+
+                if (image.uri == null) {
+                    image.error = new IOException("Failed to store image " + title + ".");
                     image.uri = fileUri.toString();
                 }
+            } else {
+                image.uri = fileUri.toString();
             }
         } catch (Exception e) {
             Log.e(ImageHelper.class.getSimpleName(), e.getMessage(), e);
+            image.error = e;
         }
 
         return image;
     }
 
-    @Nullable
-    private static String insertImage(Context context, Bitmap bitmap, String title, int quality) {
-        String fileUri = null;
+    /**
+     * Same as {@link #resizeImage(Context, Uri, String, int, int, int, int, ImageStorage)}, but when this content was
+     * already resized with the same parameters the previous output is returned (see {@link ImageIndex}), without
+     * decoding, encoding or storing it again.
+     */
+    public static Image resizeImageOnce(Context context, Uri fileUri, @NonNull String title, int maxWidth, int maxHeight, int quality, int maxBytes, @NonNull ImageStorage storage) {
+        String fingerprint = ImageIndex.fingerprint(context, fileUri);
 
-        if (bitmap != null) {
-            Uri uri;
-
-            try {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                    String imageDirectory = Environment.DIRECTORY_DCIM + File.separator + Environment.DIRECTORY_PICTURES;
-                    ContentValues values = new ContentValues();
-
-                    values.put(MediaStore.Images.Media.DISPLAY_NAME, title);
-                    values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
-                    values.put(MediaStore.Images.Media.RELATIVE_PATH, imageDirectory);
-                    values.put(MediaStore.Images.Media.IS_PENDING, 1);
+        if (fingerprint == null) {
+            return resizeImage(context, fileUri, title, maxWidth, maxHeight, quality, maxBytes, storage);
+        }
 
-                    ContentResolver resolver = context.getContentResolver();
+        ImageIndex index = ImageIndex.get(context);
+        String params = ImageIndex.getParams(maxWidth, maxHeight, quality, maxBytes, storage);
+        String uri = index.find(context, fingerprint, params);
 
-                    final Uri contentUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-                    uri = resolver.insert(contentUri, values);
+        if (uri != null) {
+            Image image = new Image(null, uri);
+            image.reused = true;
 
-                    if (uri == null) {
-                        throw new IOException("Failed to create new MediaStore record.");
-                    }
+            return image;
+        }
 
-                    try (OutputStream stream = resolver.openOutputStream(uri)) {
-                        if (stream == null) {
-                            throw new IOException("Failed to get output stream.");
-                        }
+        Image image = resizeImage(context, fileUri, title, maxWidth, maxHeight, quality, maxBytes, storage);
 
-                        if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, stream)) {
-                            throw new IOException("Failed to save bitmap.");
-                        }
-                    } catch (IOException e) {
-                        try {
-                            resolver.delete(uri, null, null);
-                        } catch (Exception ignore) {}
+        if (image.uri != null && !image.uri.equals(fileUri.toString())) {
+            index.put(fingerprint, params, image.uri);
+        }
 
-                        throw e;
-                    }
-                } else {
-                    File directory = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM), Environment.DIRECTORY_PICTURES);
+        return image;
+    }
 
-                    if (!directory.exists() && !directory.mkdir()) {
-                        throw new IOException("Cannot create public pictures dir.");
-                    }
+    private static long getByteCount(@Nullable Bitmap bitmap) {
+        return bitmap != null ? bitmap.getByteCount() : -1;
+    }
 
-                    File image = new File(directory, title + ".jpg");
+    @Nullable
+    static String insertImage(Context context, Bitmap bitmap, String title, int quality) {
+        return insertImage(context, ImageStorage.mediaStore(), bitmap, title, quality);
+    }
 
-                    try (OutputStream stream = new FileOutputStream(image)) {
-                        if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, stream)) {
-                            throw new IOException("Failed to save bitmap.");
-                        }
-                    }
+    @Nullable
+    private static String insertImage(Context context, ImageStorage storage, Bitmap bitmap, String title, int quality) {
+        String fileUri = null;
 
-                    uri = Uri.fromFile(image);
-                }
+        if (bitmap != null) {
+            try {
+                fileUri = storage.store(context, title, bitmap, quality).toString();
             } catch (Exception e) {
-                uri = null;
                 Log.e(ImageComponent.class.getSimpleName(), e.getMessage(), e);
             }
+        }
 
-            if (uri != null) {
-                fileUri = uri.toString();
-            }
+        return fileUri;
+    }
+
+    @Nullable
+    private static String insertImage(Context context, ImageStorage storage, Compression compression, String title) {
+        String fileUri = null;
+
+        try {
+            fileUri = storage.store(context, title, compression).toString();
+        } catch (Exception e) {
+            Log.e(ImageComponent.class.getSimpleName(), e.getMessage(), e);
         }
 
         return fileUri;
     }
 
     public static Bitmap getThumbFromVideo(String file, int maxWidth, int maxHeight) {
-        Bitmap thumbBitmap = null;
+        Bitmap thumbBitmap = VideoThumbnails.getThumbnail(file, maxWidth, maxHeight);
+
+        if (thumbBitmap != null) {
+            return thumbBitmap;
+        }
 
         try {
             if (Build.VERSION.SDK_INT > Build.VERSION_CODES.Q) {
@@ -292,49 +448,268 @@ public class ImageHelper {
     public static String toBase64(Bitmap bitmap, int width, int height, int quality) {
         // resize img before encode
         bitmap = ImageHelper.scaleDown(bitmap, width, height);
-        ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, byteOutput);
 
-        return Base64.encodeToString(byteOutput.toByteArray(), Base64.DEFAULT);
+        PixelArena arena = PixelArena.get();
+        PixelArena.Output output = arena.getOutput();
+
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, output);
+
+            return encodeBase64(output.data());
+        } finally {
+            arena.release();
+        }
+    }
+
+    public static String toBase64(Bitmap bitmap, int width, int height, int quality, int maxBytes) {
+        if (maxBytes <= 0) {
+            return toBase64(bitmap, width, height, quality);
+        }
+
+        return compress(ImageHelper.scaleDown(bitmap, width, height), quality, maxBytes).toBase64();
     }
 
     public static String toBase64(Context context, @NonNull File file, int width, int height, int quality) {
+        return toBase64(context, file, width, height, quality, 0);
+    }
+
+    public static String toBase64(Context context, @NonNull File file, int width, int height, int quality, int maxBytes) {
         Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
         Uri uriFile = Uri.fromFile(file);
 
-        float orientation = ImageHelper.getOrientation(context, uriFile);
+        bitmap = orient(context, uriFile, ImageProbe.probe(context, uriFile), bitmap);
 
-        if (orientation > 0) {
-            bitmap = ImageHelper.rotateImage(bitmap, orientation);
+        return ImageHelper.toBase64(bitmap, width, height, quality, maxBytes);
+    }
+
+    /**
+     * Stream the bitmap (scaled to width/height) as Base64 into sink, same output as
+     * {@link #toBase64(Bitmap, int, int, int)} with {@link Base64Sink.LineBreak#NEWLINE}.
+     *
+     * The JPEG is encoded while the compressor produces it, neither the JPEG nor its Base64 form is held in memory.
+     * The sink is flushed, not closed.
+     */
+    public static void writeBase64(Bitmap bitmap, int width, int height, int quality, @NonNull OutputStream sink, @NonNull Base64Sink.LineBreak lineBreak) throws IOException {
+        bitmap = ImageHelper.scaleDown(bitmap, width, height);
+
+        if (bitmap == null) {
+            throw new IOException("Failed to encode image.");
         }
 
-        return ImageHelper.toBase64(bitmap, width, height, quality);
+        Base64Sink output = new Base64Sink(sink, lineBreak);
+
+        if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, output)) {
+            throw new IOException("Failed to encode image.");
+        }
+
+        output.finish();
     }
 
-    public static Bitmap toBitmap(String base64String) {
-        byte[] encodeByte = Base64.decode(base64String, Base64.DEFAULT);
-        return BitmapFactory.decodeByteArray(encodeByte, 0, encodeByte.length);
+    public static boolean writeBase64(Context context, @NonNull File file, int width, int height, int quality, @NonNull OutputStream sink) throws IOException {
+        return writeBase64(context, file, width, height, quality, sink, Base64Sink.LineBreak.NEWLINE);
     }
 
-    public static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
+    /**
+     * Write the file as Base64 into sink.
+     *
+     * When the file is a JPEG that already fits width/height and is stored upright (EXIF orientation normal), only
+     * its header is read and its own JPEG data is encoded straight from a memory mapped buffer, without decoding any
+     * Bitmap or applying quality. Its EXIF/XMP (APP1) and IPTC (APP13) segments are left out, so camera and GPS
+     * metadata are not uploaded. Otherwise the file is decoded, turned upright and streamed by
+     * {@link #writeBase64(Bitmap, int, int, int, OutputStream, Base64Sink.LineBreak)}, the same image as
+     * {@link #toBase64(Context, File, int, int, int)}.
+     *
+     * @return true if the file was encoded as is
+     */
+    public static boolean writeBase64(Context context, @NonNull File file, int width, int height, int quality, @NonNull OutputStream sink, @NonNull Base64Sink.LineBreak lineBreak) throws IOException {
+        ImageProbe.Info info = ImageProbe.probe(context, Uri.fromFile(file));
+
+        boolean passThrough = info != null && ImageProbe.MIME_JPEG.equals(info.mimeType)
+                && info.hasSize() && info.width <= width && info.height <= height
+                // mirrored orientations have no rotation either, but lose their tag with APP1
+                && info.exifOrientation == Orientation.NORMAL;
+
+        if (passThrough) {
+            try (FileInputStream input = new FileInputStream(file); FileChannel channel = input.getChannel()) {
+                writeJpegBase64(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), sink, lineBreak);
+            }
+        } else {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
 
-        if (height > reqHeight || width > reqWidth) {
-            final int heightRatio = Math.round((float) height / (float) reqHeight);
-            final int widthRatio = Math.round((float) width / (float) reqWidth);
-            inSampleSize = Math.min(heightRatio, widthRatio);
+            if (bitmap == null) {
+                throw new IOException("Failed to decode image.");
+            }
+
+            writeBase64(orient(context, Uri.fromFile(file), info, bitmap), width, height, quality, sink, lineBreak);
+        }
+
+        return passThrough;
+    }
+
+    /**
+     * Base64 of the JPEG in buffer without its APP1 and APP13 segments (metadata only, nothing needed to decode it).
+     * Whatever can not be walked as a marker segment is written as is.
+     */
+    private static void writeJpegBase64(ByteBuffer buffer, OutputStream sink, Base64Sink.LineBreak lineBreak) throws IOException {
+        Base64Sink output = new Base64Sink(sink, lineBreak);
+        int position = 2;
+
+        // SOI
+        write(slice(buffer, 0, Math.min(2, buffer.limit())), output);
+
+        while (position + 4 <= buffer.limit() && (buffer.get(position) & 0xFF) == 0xFF) {
+            int marker = buffer.get(position + 1) & 0xFF;
+
+            // start of scan, entropy coded data follows
+            if (marker == 0xDA) {
+                break;
+            }
+
+            int end = position + 2 + (((buffer.get(position + 2) & 0xFF) << 8) | (buffer.get(position + 3) & 0xFF));
+
+            if (end > buffer.limit()) {
+                break;
+            }
+
+            if (marker != 0xE1 && marker != 0xED) {
+                write(slice(buffer, position, end), output);
+            }
+
+            position = end;
+        }
+
+        write(slice(buffer, position, buffer.limit()), output);
+        output.finish();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(end);
+        slice.position(start);
+
+        return slice;
+    }
+
+    /**
+     * Base64 (DEFAULT flags) of the buffer remaining bytes, encoded in chunks through the arena transfer buffer.
+     * Chunks are whole Base64 lines, so the concatenation is the same as encoding everything at once.
+     */
+    static String encodeBase64(ByteBuffer buffer) {
+        byte[] chunk = PixelArena.get().getTransfer();
+        int length = buffer.remaining();
+
+        // 4 chars for each 3 bytes, plus a line feed for each 76 chars
+        int encoded = ((length + 2) / 3) * 4;
+        StringBuilder builder = new StringBuilder(encoded + (encoded + 75) / 76);
+
+        while (buffer.hasRemaining()) {
+            int count = Math.min(chunk.length, buffer.remaining());
+
+            buffer.get(chunk, 0, count);
+            builder.append(Base64.encodeToString(chunk, 0, count, Base64.DEFAULT));
         }
 
-        final float totalPixels = width * height;
-        final float totalReqPixelsCap = reqWidth * reqHeight * 2;
+        return builder.toString();
+    }
+
+    /**
+     * Write the buffer remaining bytes into out, through the arena transfer buffer.
+     */
+    static void write(ByteBuffer buffer, OutputStream out) throws IOException {
+        byte[] chunk = PixelArena.get().getTransfer();
+
+        while (buffer.hasRemaining()) {
+            int count = Math.min(chunk.length, buffer.remaining());
 
-        while (totalPixels / (inSampleSize * inSampleSize) > totalReqPixelsCap) {
-            inSampleSize++;
+            buffer.get(chunk, 0, count);
+            out.write(chunk, 0, count);
         }
+    }
 
-        return inSampleSize;
+    public static Compression compress(@NonNull Bitmap bitmap, int quality, int maxBytes) {
+        return compress(bitmap, quality, Math.min(quality, DEFAULT_MIN_QUALITY), maxBytes);
+    }
+
+    /**
+     * Compress bitmap as JPEG into at most maxBytes.
+     *
+     * Binary search the quality between minQuality and quality, reusing the two direct outputs of the thread
+     * {@link PixelArena} (current attempt and best fit so far), only the final bytes are copied out. If even minQuality does not fit, the bitmap is scaled down and the search runs again,
+     * bounded by {@link #MAX_BYTES_SCALE_ATTEMPTS}. When nothing fits, the smallest attempt is returned with
+     * {@link Compression#fits} set to false.
+     */
+    public static Compression compress(@NonNull Bitmap bitmap, int quality, int minQuality, int maxBytes) {
+        PixelArena arena = PixelArena.get();
+
+        try {
+            return compress(bitmap, quality, minQuality, maxBytes, arena.getOutput(), arena.getSpareOutput());
+        } finally {
+            arena.release();
+        }
+    }
+
+    private static Compression compress(Bitmap bitmap, int quality, int minQuality, int maxBytes, PixelArena.Output attempt, PixelArena.Output best) {
+        int iterations = 0;
+        int scaleAttempts = 0;
+
+        while (true) {
+            // first try the requested quality, most of the images should fit on it
+            iterations++;
+            attempt.reset();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, attempt);
+
+            if (attempt.size() <= maxBytes) {
+                return new Compression(bitmap, quality, iterations, true, attempt.copy());
+            }
+
+            int low = minQuality;
+            int high = quality - 1;
+            int bestQuality = -1;
+            int lastQuality = quality;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+
+                lastQuality = mid;
+                iterations++;
+                attempt.reset();
+                bitmap.compress(Bitmap.CompressFormat.JPEG, mid, attempt);
+
+                if (attempt.size() <= maxBytes) {
+                    PixelArena.Output swap = best;
+                    best = attempt;
+                    attempt = swap;
+
+                    bestQuality = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            if (bestQuality >= 0) {
+                return new Compression(bitmap, bestQuality, iterations, true, best.copy());
+            }
+
+            int width = (int) (bitmap.getWidth() * MAX_BYTES_SCALE_STEP);
+            int height = (int) (bitmap.getHeight() * MAX_BYTES_SCALE_STEP);
+
+            if (++scaleAttempts > MAX_BYTES_SCALE_ATTEMPTS || Math.min(width, height) < MAX_BYTES_MIN_DIMENSION) {
+                // last attempt (lowest quality) is the smallest one
+                return new Compression(bitmap, lastQuality, iterations, false, attempt.copy());
+            }
+
+            bitmap = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        }
+    }
+
+    public static Bitmap toBitmap(String base64String) {
+        byte[] encodeByte = Base64.decode(base64String, Base64.DEFAULT);
+        return BitmapFactory.decodeByteArray(encodeByte, 0, encodeByte.length);
+    }
+
+    public static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        return ImageSizing.calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
     }
 
     public static Bitmap scaleDown(Bitmap realImage, int imgMaxWidth, int imgMaxHeight) {
@@ -342,13 +717,37 @@ public class ImageHelper {
 
         if (realImage != null) {
             ImageSize ratio = new ImageSize(realImage, imgMaxWidth, imgMaxHeight);
-            bitmap = Bitmap.createScaledBitmap(realImage, ratio.width, ratio.height, false);
+
+            if (useKernels(realImage, (long) realImage.getWidth() * realImage.getHeight())
+                    && (ratio.width != realImage.getWidth() || ratio.height != realImage.getHeight())) {
+                bitmap = scaleArea(realImage, ratio.width, ratio.height);
+            } else {
+                bitmap = Bitmap.createScaledBitmap(realImage, ratio.width, ratio.height, false);
+            }
         }
 
         return bitmap;
     }
 
     public static float getOrientation(Context context, Uri uri) {
+        if (context == null) {
+            return 0;
+        }
+
+        ImageProbe.Info info = ImageProbe.probe(context, uri);
+
+        if (info != null && info.hasOrientation()) {
+            return info.getRotation();
+        }
+
+        return getExifOrientation(context, uri);
+    }
+
+    /**
+     * Read orientation with a full ExifInterface, used for formats not handled by {@link ImageProbe} and for EXIF data
+     * beyond its header read.
+     */
+    public static float getExifOrientation(Context context, Uri uri) {
         float rotateAngle = 0;
 
         try {
@@ -358,24 +757,7 @@ public class ImageHelper {
 
                     int orientation = ei.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
 
-                    switch (orientation) {
-                        case ExifInterface.ORIENTATION_ROTATE_90: {
-                            rotateAngle = 90f;
-                            break;
-                        }
-                        case ExifInterface.ORIENTATION_ROTATE_180: {
-                            rotateAngle = 180f;
-                            break;
-                        }
-                        case ExifInterface.ORIENTATION_ROTATE_270: {
-                            rotateAngle = 270f;
-                            break;
-                        }
-                        default: {
-                            rotateAngle = 0;
-                            break;
-                        }
-                    }
+                    rotateAngle = Orientation.getRotation(orientation);
                 }
             }
         } catch (IOException e) {
@@ -385,10 +767,200 @@ public class ImageHelper {
         return rotateAngle;
     }
 
+    /**
+     * Bitmap decoded from uri turned upright: rotation and mirror of the probed EXIF orientation, or the rotation
+     * read by ExifInterface when the probe did not reach it.
+     */
+    private static Bitmap orient(Context context, Uri uri, @Nullable ImageProbe.Info info, Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+        if (info != null && info.hasOrientation()) {
+            return transformImage(bitmap, info.exifOrientation);
+        }
+
+        float rotation = getExifOrientation(context, uri);
+
+        return rotation > 0 ? rotateImage(bitmap, rotation) : bitmap;
+    }
+
+    /**
+     * Apply an EXIF orientation ({@link Orientation}) to the bitmap, mirrored ones included.
+     */
+    public static Bitmap transformImage(Bitmap source, int orientation) {
+        if (!Orientation.isMirrored(orientation)) {
+            float rotation = Orientation.getRotation(orientation);
+
+            return rotation > 0 ? rotateImage(source, rotation) : source;
+        }
+
+        Matrix matrix = new Matrix();
+
+        switch (orientation) {
+            case Orientation.FLIP_HORIZONTAL: {
+                matrix.setScale(-1, 1);
+                break;
+            }
+            case Orientation.FLIP_VERTICAL: {
+                matrix.setScale(1, -1);
+                break;
+            }
+            case Orientation.TRANSPOSE: {
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            }
+            default: {
+                // TRANSVERSE
+                matrix.setRotate(270);
+                matrix.postScale(-1, 1);
+                break;
+            }
+        }
+
+        return Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+    }
+
     public static Bitmap rotateImage(Bitmap source, float angle) {
+        int degrees = (int) angle;
+
+        if (degrees == angle && (degrees == 90 || degrees == 180 || degrees == 270)
+                && useKernels(source, (long) source.getWidth() * source.getHeight())) {
+            return rotateStriped(source, degrees);
+        }
+
+        if (angle == 180f && source.getConfig() == Bitmap.Config.ARGB_8888) {
+            return rotate180(source);
+        }
+
         Matrix matrix = new Matrix();
         matrix.postRotate(angle);
 
         return Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
     }
-}
\ No newline at end of file
+
+    /**
+     * 180 degrees is the pixel order reversed: stage the pixels on the arena direct buffer, reverse them
+     * in place and copy back into the new bitmap, no Matrix/Canvas pass and no heap int[].
+     */
+    private static Bitmap rotate180(Bitmap source) {
+        PixelArena arena = PixelArena.get();
+
+        try {
+            ByteBuffer buffer = arena.copyPixels(source);
+            IntBuffer pixels = buffer.asIntBuffer();
+
+            for (int i = 0, j = pixels.limit() - 1; i < j; i++, j--) {
+                int pixel = pixels.get(i);
+
+                pixels.put(i, pixels.get(j));
+                pixels.put(j, pixel);
+            }
+
+            Bitmap rotated = PixelArena.toBitmap(buffer, source.getWidth(), source.getHeight(), source.getConfig(), source.hasAlpha());
+            rotated.setDensity(source.getDensity());
+
+            return rotated;
+        } finally {
+            arena.release();
+        }
+    }
+
+    /**
+     * Pixel count from which rotateImage/scaleDown use the striped {@link ParallelKernels} instead of the
+     * (single threaded) Matrix path. {@link Integer#MAX_VALUE} disables them, as do profiles with a parallelism of 1.
+     */
+    public static void setParallelMinPixels(int pixels) {
+        ParallelKernels.setMinPixels(pixels);
+    }
+
+    private static boolean useKernels(Bitmap bitmap, long pixels) {
+        // ParallelKernels runs on its own ForkJoinPool (the common pool is API 24), available from Lollipop
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && bitmap.getConfig() == Bitmap.Config.ARGB_8888
+                // getPixels/setPixels unpremultiply, area averages of translucent pixels would bleed color
+                && !bitmap.hasAlpha()
+                && ImageProfiles.getCurrent().parallelism > 1
+                && pixels >= ParallelKernels.getMinPixels();
+    }
+
+    /**
+     * Rotate a band of source rows at a time through the arena (Bitmap#getPixels, striped kernel, Bitmap#setPixels
+     * at the band place in the new bitmap), staging memory stays at {@link PixelArena#BAND_PIXELS} whatever the image size.
+     */
+    private static Bitmap rotateStriped(Bitmap source, int degrees) {
+        PixelArena arena = PixelArena.get();
+
+        try {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            boolean swap = degrees != 180;
+
+            Bitmap rotated = Bitmap.createBitmap(swap ? height : width, swap ? width : height, source.getConfig());
+
+            int bandRows = Math.max(1, PixelArena.BAND_PIXELS / width);
+            int[] band = arena.getBand(width * bandRows);
+            int[] target = arena.getTargetBand(width * bandRows);
+
+            for (int top = 0; top < height; top += bandRows) {
+                int rows = Math.min(bandRows, height - top);
+
+                source.getPixels(band, 0, width, 0, top, width, rows);
+                ParallelKernels.rotateBand(IntBuffer.wrap(band, 0, width * rows), width, rows, IntBuffer.wrap(target), degrees);
+
+                if (degrees == 90) {
+                    rotated.setPixels(target, 0, rows, height - top - rows, 0, rows, width);
+                } else if (degrees == 270) {
+                    rotated.setPixels(target, 0, rows, top, 0, rows, width);
+                } else {
+                    rotated.setPixels(target, 0, width, 0, height - top - rows, width, rows);
+                }
+            }
+
+            rotated.setHasAlpha(source.hasAlpha());
+            rotated.setDensity(source.getDensity());
+
+            return rotated;
+        } finally {
+            arena.release();
+        }
+    }
+
+    /**
+     * Scale a band of target rows at a time, reading only the source rows it averages (same bounds as rotateStriped).
+     */
+    private static Bitmap scaleArea(Bitmap source, int width, int height) {
+        PixelArena arena = PixelArena.get();
+
+        try {
+            int sourceWidth = source.getWidth();
+            int sourceHeight = source.getHeight();
+
+            Bitmap scaled = Bitmap.createBitmap(width, height, source.getConfig());
+
+            // target rows whose source rows fit in a band, at least one
+            int bandRows = (int) Math.max(1, (long) (PixelArena.BAND_PIXELS / sourceWidth) * height / sourceHeight);
+
+            for (int top = 0; top < height; top += bandRows) {
+                int bottom = Math.min(height, top + bandRows);
+                int sourceTop = PixelKernels.getAreaTop(top, sourceHeight, height);
+                int sourceRows = PixelKernels.getAreaBottom(bottom - 1, sourceHeight, height) - sourceTop;
+
+                int[] band = arena.getBand(sourceWidth * sourceRows);
+                int[] target = arena.getTargetBand(width * (bottom - top));
+
+                source.getPixels(band, 0, sourceWidth, 0, sourceTop, sourceWidth, sourceRows);
+                ParallelKernels.scaleAreaBand(IntBuffer.wrap(band, 0, sourceWidth * sourceRows), sourceWidth, sourceHeight,
+                        IntBuffer.wrap(target), width, height, top, bottom);
+                scaled.setPixels(target, 0, width, 0, top, width, bottom - top);
+            }
+
+            scaled.setHasAlpha(source.hasAlpha());
+            scaled.setDensity(source.getDensity());
+
+            return scaled;
+        } finally {
+            arena.release();
+        }
+    }
+}
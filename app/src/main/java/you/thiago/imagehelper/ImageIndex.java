@@ -0,0 +1,204 @@
+package you.thiago.imagehelper;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.provider.BaseColumns;
+import android.system.Os;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.channels.FileChannel;
+
+import you.thiago.imagehelper.core.Fingerprint;
+
+/**
+ * Persistent index of resized outputs, keyed by a content {@link Fingerprint} of the source and the resize
+ * parameters, so an image picked again returns the previous output instead of being decoded and stored again.
+ *
+ * Entries whose output was deleted are dropped when looked up. Only the newest {@link #MAX_ENTRIES} are kept.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageIndex extends SQLiteOpenHelper {
+
+    public static final int MAX_ENTRIES = 2000;
+
+    private static final String DATABASE = "imagehelper_index.db";
+    private static final int VERSION = 1;
+
+    private static final String TABLE = "outputs";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String PARAMS = "params";
+    private static final String URI = "uri";
+    private static final String CREATED = "created";
+
+    private static volatile ImageIndex instance;
+
+    private ImageIndex(Context context) {
+        super(context, DATABASE, null, VERSION);
+    }
+
+    public static ImageIndex get(@NonNull Context context) {
+        if (instance == null) {
+            synchronized (ImageIndex.class) {
+                if (instance == null) {
+                    Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+                    instance = new ImageIndex(appContext);
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + FINGERPRINT + " TEXT NOT NULL, "
+                + PARAMS + " TEXT NOT NULL, "
+                + URI + " TEXT NOT NULL, "
+                + CREATED + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + FINGERPRINT + ", " + PARAMS + "))");
+        db.execSQL("CREATE INDEX " + TABLE + "_" + CREATED + " ON " + TABLE + " (" + CREATED + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * Resize parameters as stored on the index.
+     */
+    public static String getParams(int maxWidth, int maxHeight, int quality, int maxBytes, @NonNull ImageStorage storage) {
+        return maxWidth + "x" + maxHeight + "@" + quality + "#" + maxBytes + "/" + storage.getKey();
+    }
+
+    /**
+     * Fingerprint of the source content (read through its file descriptor).
+     *
+     * @return null if the source has no file descriptor (stream only providers) or cannot be read
+     */
+    @Nullable
+    public static String fingerprint(@NonNull Context context, @NonNull Uri uri) {
+        try {
+            if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null) {
+                File file = new File(uri.getPath());
+
+                try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel()) {
+                    return Fingerprint.of(channel, file.lastModified());
+                }
+            }
+
+            try (ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r")) {
+                if (descriptor == null || descriptor.getStatSize() < 0) {
+                    return null;
+                }
+
+                long modified = 0;
+
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    try {
+                        modified = Os.fstat(descriptor.getFileDescriptor()).st_mtime;
+                    } catch (Exception ignore) {}
+                }
+
+                try (FileInputStream in = new FileInputStream(descriptor.getFileDescriptor()); FileChannel channel = in.getChannel()) {
+                    return Fingerprint.of(channel, modified);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(ImageIndex.class.getSimpleName(), e.getMessage(), e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Output previously stored for the fingerprint and params, null if unknown or no longer available.
+     */
+    @Nullable
+    public String find(@NonNull Context context, @NonNull String fingerprint, @NonNull String params) {
+        String uri = null;
+
+        try (Cursor cursor = getReadableDatabase().query(TABLE, new String[] { URI },
+                FINGERPRINT + " = ? AND " + PARAMS + " = ?", new String[] { fingerprint, params }, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                uri = cursor.getString(0);
+            }
+        } catch (Exception e) {
+            Log.e(ImageIndex.class.getSimpleName(), e.getMessage(), e);
+            return null;
+        }
+
+        if (uri != null && !exists(context, Uri.parse(uri))) {
+            remove(fingerprint, params);
+            return null;
+        }
+
+        return uri;
+    }
+
+    public void put(@NonNull String fingerprint, @NonNull String params, @NonNull String uri) {
+        ContentValues values = new ContentValues();
+        values.put(FINGERPRINT, fingerprint);
+        values.put(PARAMS, params);
+        values.put(URI, uri);
+        values.put(CREATED, System.currentTimeMillis());
+
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+
+            // keep the newest entries only
+            db.execSQL("DELETE FROM " + TABLE + " WHERE " + CREATED + " < (SELECT " + CREATED + " FROM " + TABLE
+                    + " ORDER BY " + CREATED + " DESC LIMIT 1 OFFSET " + (MAX_ENTRIES - 1) + ")");
+        } catch (Exception e) {
+            Log.e(ImageIndex.class.getSimpleName(), e.getMessage(), e);
+        }
+    }
+
+    public void remove(@NonNull String fingerprint, @NonNull String params) {
+        try {
+            getWritableDatabase().delete(TABLE, FINGERPRINT + " = ? AND " + PARAMS + " = ?", new String[] { fingerprint, params });
+        } catch (Exception e) {
+            Log.e(ImageIndex.class.getSimpleName(), e.getMessage(), e);
+        }
+    }
+
+    public void clear() {
+        try {
+            getWritableDatabase().delete(TABLE, null, null);
+        } catch (Exception e) {
+            Log.e(ImageIndex.class.getSimpleName(), e.getMessage(), e);
+        }
+    }
+
+    private static boolean exists(Context context, Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            return uri.getPath() != null && new File(uri.getPath()).exists();
+        }
+
+        try (Cursor cursor = context.getContentResolver().query(uri, new String[] { BaseColumns._ID }, null, null, null)) {
+            return cursor != null && cursor.moveToFirst();
+        } catch (Exception e) {
+            // providers that cannot be queried (FileProvider without _ID): check it can still be opened
+            try (ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r")) {
+                return descriptor != null;
+            } catch (Exception ignore) {
+                return false;
+            }
+        }
+    }
+}
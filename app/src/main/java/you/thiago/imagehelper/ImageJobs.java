@@ -0,0 +1,926 @@
+package you.thiago.imagehelper;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import you.thiago.imagehelper.core.Base64Sink;
+
+/**
+ * Persistent queue of resize/store and resize/encode jobs, journaled on SQLite so work survives rotations and
+ * process death (call {@link #get(Context)} on app start to resume it).
+ *
+ * Each job goes through stages that are recorded as they complete: the resized JPEG is first written (and synced)
+ * to a stage file, then stored or encoded from it, so a resumed job never decodes or compresses again after its
+ * stage file exists. MediaStore records are journaled while still pending, a resumed job rewrites the same record
+ * instead of inserting a new one. Failed runs are retried with exponential backoff up to {@link #MAX_ATTEMPTS}.
+ *
+ * On start, records of jobs that died while running go back to the queue, and stage files, empty capture files
+ * and pending MediaStore records left without a job are swept.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageJobs extends SQLiteOpenHelper {
+
+    public static final int MAX_ATTEMPTS = 5;
+    public static final int DEFAULT_CONCURRENCY = 2;
+
+    private static final long BASE_BACKOFF_MS = 2000;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+
+    /* leftovers younger than this may still be in use (camera writing, synchronous stores) */
+    private static final long ORPHAN_AGE_MS = 60 * 60 * 1000;
+
+    private static final String DATABASE = "imagehelper_jobs.db";
+    private static final int VERSION = 1;
+
+    private static final String STAGE_DIRECTORY = "image_jobs";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String TABLE = "jobs";
+    private static final String ID = "id";
+    private static final String TYPE = "type";
+    private static final String SOURCE = "source";
+    private static final String TITLE = "title";
+    private static final String WIDTH = "width";
+    private static final String HEIGHT = "height";
+    private static final String QUALITY = "quality";
+    private static final String MAX_BYTES = "max_bytes";
+    private static final String STORAGE = "storage";
+    private static final String TARGET = "target";
+    private static final String DELETE_SOURCE = "delete_source";
+    private static final String STATE = "state";
+    private static final String STAGE = "stage";
+    private static final String STAGE_FILE = "stage_file";
+    private static final String PENDING_URI = "pending_uri";
+    private static final String OUTPUT = "output";
+    private static final String ATTEMPTS = "attempts";
+    private static final String NEXT_RUN = "next_run";
+    private static final String ERROR = "error";
+    private static final String CREATED = "created";
+
+    private static final String STORAGE_MEDIA = "media";
+    private static final String STORAGE_FILE = "file";
+    private static final String STORAGE_SEPARATOR = "|";
+
+    public enum Type {
+        /* resize and store into an ImageStorage */
+        RESIZE,
+        /* resize and write the Base64 JPEG into a file */
+        ENCODE
+    }
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    public enum Stage {
+        NEW,
+        /* resized JPEG written to the stage file */
+        STAGED,
+        /* output stored or encoded */
+        STORED
+    }
+
+    public interface Listener {
+        /**
+         * Job state changed (called on a worker thread).
+         */
+        void onJobChanged(@NonNull Job job);
+    }
+
+    public static class Job {
+
+        public long id;
+        public Type type;
+        public Uri source;
+        public String title;
+        public int width;
+        public int height;
+        public int quality;
+        public int maxBytes;
+        public State state;
+        public Stage stage;
+        public int attempts;
+
+        /* earliest time (millis) of the next run while queued */
+        public long nextRun;
+
+        /* stored uri (RESIZE) or file uri of the Base64 file (ENCODE), once done */
+        @Nullable
+        public String output;
+
+        @Nullable
+        public String error;
+
+        String storage;
+        String target;
+        boolean deleteSource;
+        String stageFile;
+        String pendingUri;
+
+        public boolean isFinished() {
+            return state == State.DONE || state == State.FAILED;
+        }
+    }
+
+    private static volatile ImageJobs instance;
+
+    private final Context context;
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<Long> cancelled = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor timer;
+
+    private volatile int concurrency = DEFAULT_CONCURRENCY;
+
+    /* guarded by this */
+    private ScheduledFuture<?> wakeUp;
+
+    ImageJobs(Context context) {
+        super(context, DATABASE, null, VERSION);
+
+        this.context = context;
+
+        AtomicInteger count = new AtomicInteger();
+
+        workers = new ThreadPoolExecutor(DEFAULT_CONCURRENCY, DEFAULT_CONCURRENCY, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "ImageJobs-" + count.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        workers.allowCoreThreadTimeOut(true);
+
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "ImageJobs-timer");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Queue of the app, recovering and resuming the journaled jobs on the first call.
+     */
+    public static ImageJobs get(@NonNull Context context) {
+        if (instance == null) {
+            synchronized (ImageJobs.class) {
+                if (instance == null) {
+                    Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+                    ImageJobs jobs = new ImageJobs(appContext);
+
+                    jobs.timer.execute(jobs::recover);
+                    instance = jobs;
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + TYPE + " TEXT NOT NULL, "
+                + SOURCE + " TEXT NOT NULL, "
+                + TITLE + " TEXT NOT NULL, "
+                + WIDTH + " INTEGER NOT NULL, "
+                + HEIGHT + " INTEGER NOT NULL, "
+                + QUALITY + " INTEGER NOT NULL, "
+                + MAX_BYTES + " INTEGER NOT NULL, "
+                + STORAGE + " TEXT, "
+                + TARGET + " TEXT, "
+                + DELETE_SOURCE + " INTEGER NOT NULL, "
+                + STATE + " TEXT NOT NULL, "
+                + STAGE + " TEXT NOT NULL, "
+                + STAGE_FILE + " TEXT, "
+                + PENDING_URI + " TEXT, "
+                + OUTPUT + " TEXT, "
+                + ATTEMPTS + " INTEGER NOT NULL, "
+                + NEXT_RUN + " INTEGER NOT NULL, "
+                + ERROR + " TEXT, "
+                + CREATED + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX " + TABLE + "_" + STATE + " ON " + TABLE + " (" + STATE + ", " + NEXT_RUN + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * Queue a resize of source stored into storage ({@link MediaStoreStorage} or {@link FileStorage}).
+     *
+     * Journals the job before returning (a database write), so call it off the main thread.
+     *
+     * @param deleteSource delete the source file (file uris only) once stored, e.g. a camera capture file
+     * @return job id
+     */
+    @WorkerThread
+    public long enqueueResize(@NonNull Uri source, int maxWidth, int maxHeight, int quality, int maxBytes, @NonNull ImageStorage storage, boolean deleteSource) {
+        ContentValues values = newJob(Type.RESIZE, source, maxWidth, maxHeight, quality, maxBytes, deleteSource);
+        values.put(STORAGE, toString(storage));
+
+        return insert(values);
+    }
+
+    /**
+     * Queue a resize of source written as Base64 (with line breaks, like Base64.DEFAULT) into target.
+     * Journals the job before returning, so call it off the main thread.
+     *
+     * @return job id
+     */
+    @WorkerThread
+    public long enqueueEncode(@NonNull Uri source, int maxWidth, int maxHeight, int quality, int maxBytes, @NonNull File target) {
+        ContentValues values = newJob(Type.ENCODE, source, maxWidth, maxHeight, quality, maxBytes, false);
+        values.put(TARGET, target.getAbsolutePath());
+
+        return insert(values);
+    }
+
+    @Nullable
+    public Job getJob(long id) {
+        List<Job> jobs = query(ID + " = ?", new String[] { String.valueOf(id) }, null, null);
+        return jobs.isEmpty() ? null : jobs.get(0);
+    }
+
+    public List<Job> getJobs() {
+        return query(null, null, ID, null);
+    }
+
+    public List<Job> getJobs(@NonNull State state) {
+        return query(STATE + " = ?", new String[] { state.name() }, ID, null);
+    }
+
+    /**
+     * Drop a job and whatever it already produced (pending record, stage file). A running job stops at the
+     * end of its current stage.
+     *
+     * Holds the dispatch monitor, so a queued job cannot be claimed between the state check and the discard.
+     */
+    public synchronized void cancel(long id) {
+        Job job = getJob(id);
+
+        if (job == null) {
+            return;
+        }
+
+        if (job.state == State.RUNNING) {
+            cancelled.add(id);
+        } else {
+            discard(job);
+        }
+    }
+
+    /**
+     * Remove finished (done and failed) jobs from the journal.
+     */
+    public void clearFinished() {
+        try {
+            getWritableDatabase().delete(TABLE, STATE + " IN (?, ?)", new String[] { State.DONE.name(), State.FAILED.name() });
+        } catch (Exception e) {
+            Log.e(ImageJobs.class.getSimpleName(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Max jobs running at the same time.
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+
+        if (this.concurrency > workers.getMaximumPoolSize()) {
+            workers.setMaximumPoolSize(this.concurrency);
+            workers.setCorePoolSize(this.concurrency);
+        } else {
+            workers.setCorePoolSize(this.concurrency);
+            workers.setMaximumPoolSize(this.concurrency);
+        }
+
+        timer.execute(this::dispatch);
+    }
+
+    /**
+     * Stop the workers and the timer of a queue that is not the app one (tests), the app queue lives with the
+     * process.
+     */
+    void shutdown() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+        close();
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private ContentValues newJob(Type type, Uri source, int maxWidth, int maxHeight, int quality, int maxBytes, boolean deleteSource) {
+        ContentValues values = new ContentValues();
+
+        values.put(TYPE, type.name());
+        values.put(SOURCE, source.toString());
+        values.put(TITLE, ImageNames.next());
+        values.put(WIDTH, maxWidth);
+        values.put(HEIGHT, maxHeight);
+        values.put(QUALITY, quality);
+        values.put(MAX_BYTES, maxBytes);
+        values.put(DELETE_SOURCE, deleteSource ? 1 : 0);
+        values.put(STATE, State.QUEUED.name());
+        values.put(STAGE, Stage.NEW.name());
+        values.put(ATTEMPTS, 0);
+        values.put(NEXT_RUN, 0);
+        values.put(CREATED, System.currentTimeMillis());
+
+        return values;
+    }
+
+    private long insert(ContentValues values) {
+        long id = getWritableDatabase().insertOrThrow(TABLE, null, values);
+        timer.execute(this::dispatch);
+
+        return id;
+    }
+
+    /**
+     * Start due jobs up to the concurrency limit, and wake up again when the next backoff ends.
+     */
+    private synchronized void dispatch() {
+        try {
+            while (running.get() < concurrency) {
+                Job job = claim();
+
+                if (job == null) {
+                    break;
+                }
+
+                running.incrementAndGet();
+                workers.execute(() -> run(job));
+            }
+
+            scheduleWakeUp();
+        } catch (Exception e) {
+            Log.e(ImageJobs.class.getSimpleName(), e.getMessage(), e);
+        }
+    }
+
+    @Nullable
+    private Job claim() {
+        List<Job> due = query(STATE + " = ? AND " + NEXT_RUN + " <= ?",
+                new String[] { State.QUEUED.name(), String.valueOf(System.currentTimeMillis()) }, NEXT_RUN + ", " + ID, "1");
+
+        if (due.isEmpty()) {
+            return null;
+        }
+
+        Job job = due.get(0);
+        job.state = State.RUNNING;
+
+        ContentValues values = new ContentValues();
+        values.put(STATE, State.RUNNING.name());
+        update(job.id, values);
+
+        return job;
+    }
+
+    private void scheduleWakeUp() {
+        List<Job> next = query(STATE + " = ?", new String[] { State.QUEUED.name() }, NEXT_RUN, "1");
+
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+        }
+
+        if (!next.isEmpty()) {
+            long delay = Math.max(0, next.get(0).nextRun - System.currentTimeMillis());
+
+            if (delay > 0) {
+                wakeUp = timer.schedule(this::dispatch, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void run(Job job) {
+        try {
+            if (job.stage == Stage.NEW) {
+                stage(job);
+            }
+
+            if (job.stage == Stage.STAGED && !isCancelled(job)) {
+                if (job.type == Type.ENCODE) {
+                    encode(job);
+                } else {
+                    store(job);
+                }
+            }
+
+            if (!isCancelled(job)) {
+                finish(job);
+            }
+        } catch (Exception e) {
+            Log.e(ImageJobs.class.getSimpleName(), e.getMessage(), e);
+
+            if (!isCancelled(job)) {
+                retry(job, e);
+            }
+        } finally {
+            running.decrementAndGet();
+            timer.execute(this::dispatch);
+        }
+    }
+
+    private boolean isCancelled(Job job) {
+        if (cancelled.remove(job.id)) {
+            discard(job);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Resize the source into the stage file (written aside and renamed, so it is either complete or missing).
+     */
+    private void stage(Job job) throws IOException {
+        ImageHelper.Image image = ImageHelper.resizeImage(context, job.source, null, job.width, job.height, job.quality, job.maxBytes);
+
+        if (image.bitmap == null) {
+            throw new IOException("Failed to decode " + job.source);
+        }
+
+        File file = new File(getStageDirectory(), job.id + ".jpg");
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            if (image.compression != null) {
+                image.compression.writeTo(out);
+            } else if (!image.bitmap.compress(Bitmap.CompressFormat.JPEG, job.quality, out)) {
+                throw new IOException("Failed to compress " + job.source);
+            }
+
+            out.getFD().sync();
+        } finally {
+            image.bitmap.recycle();
+        }
+
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to write " + file);
+        }
+
+        job.stage = Stage.STAGED;
+        job.stageFile = file.getPath();
+
+        ContentValues values = new ContentValues();
+        values.put(STAGE, job.stage.name());
+        values.put(STAGE_FILE, job.stageFile);
+        update(job.id, values);
+        notify(job);
+    }
+
+    private void store(Job job) throws IOException {
+        ImageStorage storage = toStorage(job.storage);
+        ByteBuffer data = map(job.stageFile);
+        Uri uri;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && storage instanceof MediaStoreStorage) {
+            uri = storePending(job, (MediaStoreStorage) storage, data);
+        } else {
+            uri = storage.store(context, job.title, new ImageHelper.Compression(null, job.quality, 0, true, data));
+        }
+
+        job.stage = Stage.STORED;
+        job.output = uri.toString();
+
+        ContentValues values = new ContentValues();
+        values.put(STAGE, job.stage.name());
+        values.put(OUTPUT, job.output);
+        values.putNull(PENDING_URI);
+        update(job.id, values);
+    }
+
+    /**
+     * Write into the journaled pending record (rewritten from the start when resumed), then publish it.
+     */
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private Uri storePending(Job job, MediaStoreStorage storage, ByteBuffer data) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        Uri uri = job.pendingUri != null ? Uri.parse(job.pendingUri) : null;
+        OutputStream stream = null;
+
+        if (uri != null) {
+            try {
+                stream = resolver.openOutputStream(uri, "wt");
+            } catch (FileNotFoundException | SecurityException e) {
+                // record expired or deleted meanwhile, create a new one
+                uri = null;
+            }
+        }
+
+        if (uri == null) {
+            uri = storage.createPending(context, job.title);
+            job.pendingUri = uri.toString();
+
+            ContentValues values = new ContentValues();
+            values.put(PENDING_URI, job.pendingUri);
+            update(job.id, values);
+
+            stream = resolver.openOutputStream(uri, "wt");
+        }
+
+        if (stream == null) {
+            throw new IOException("Failed to get output stream.");
+        }
+
+        try (OutputStream out = stream) {
+            ImageHelper.write(data, out);
+        }
+
+        storage.publish(context, uri);
+
+        return uri;
+    }
+
+    private void encode(Job job) throws IOException {
+        File target = new File(job.target);
+        File temp = new File(job.target + TEMP_SUFFIX);
+
+        File parent = target.getParentFile();
+
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            Base64Sink sink = new Base64Sink(out, Base64Sink.LineBreak.NEWLINE);
+
+            ImageHelper.write(map(job.stageFile), sink);
+            sink.finish();
+
+            out.getFD().sync();
+        }
+
+        if (!temp.renameTo(target)) {
+            throw new IOException("Failed to write " + target);
+        }
+
+        job.stage = Stage.STORED;
+        job.output = Uri.fromFile(target).toString();
+
+        ContentValues values = new ContentValues();
+        values.put(STAGE, job.stage.name());
+        values.put(OUTPUT, job.output);
+        update(job.id, values);
+    }
+
+    private void finish(Job job) {
+        deleteFile(job.stageFile);
+
+        if (job.deleteSource && ContentResolver.SCHEME_FILE.equals(job.source.getScheme())) {
+            deleteFile(job.source.getPath());
+        }
+
+        job.state = State.DONE;
+
+        ContentValues values = new ContentValues();
+        values.put(STATE, job.state.name());
+        values.putNull(STAGE_FILE);
+        values.putNull(ERROR);
+        update(job.id, values);
+        notify(job);
+    }
+
+    /**
+     * Queue again after a backoff, or give up (dropping partial outputs) after {@link #MAX_ATTEMPTS}.
+     */
+    private void retry(Job job, Exception error) {
+        job.attempts++;
+        job.error = error.getMessage() != null ? error.getMessage() : error.getClass().getName();
+
+        ContentValues values = new ContentValues();
+        values.put(ATTEMPTS, job.attempts);
+        values.put(ERROR, job.error);
+
+        if (job.attempts >= MAX_ATTEMPTS) {
+            deletePending(job);
+            deleteFile(job.stageFile);
+
+            job.state = State.FAILED;
+            values.putNull(STAGE_FILE);
+            values.putNull(PENDING_URI);
+        } else {
+            job.state = State.QUEUED;
+            values.put(NEXT_RUN, System.currentTimeMillis() + getBackoff(job.attempts));
+        }
+
+        values.put(STATE, job.state.name());
+        update(job.id, values);
+        notify(job);
+    }
+
+    /**
+     * Delay before the next run after the given number of failed attempts (doubling, capped).
+     */
+    static long getBackoff(int attempts) {
+        return Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (attempts - 1));
+    }
+
+    private void discard(Job job) {
+        deletePending(job);
+        deleteFile(job.stageFile);
+
+        try {
+            getWritableDatabase().delete(TABLE, ID + " = ?", new String[] { String.valueOf(job.id) });
+        } catch (Exception e) {
+            Log.e(ImageJobs.class.getSimpleName(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Requeue jobs that were running when the process died and sweep what no job owns anymore.
+     */
+    void recover() {
+        try {
+            ContentValues values = new ContentValues();
+            values.put(STATE, State.QUEUED.name());
+            getWritableDatabase().update(TABLE, values, STATE + " = ?", new String[] { State.RUNNING.name() });
+
+            List<Job> jobs = query(STATE + " IN (?, ?)", new String[] { State.QUEUED.name(), State.RUNNING.name() }, null, null);
+
+            sweepStageFiles(jobs);
+            sweepCaptureFiles(jobs);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                sweepPendingRecords(jobs);
+            }
+        } catch (Exception e) {
+            Log.e(ImageJobs.class.getSimpleName(), e.getMessage(), e);
+        }
+
+        dispatch();
+    }
+
+    private void sweepStageFiles(List<Job> jobs) {
+        Set<String> owned = new HashSet<>();
+
+        for (Job job : jobs) {
+            if (job.stageFile != null) {
+                owned.add(job.stageFile);
+            }
+        }
+
+        File[] files = getStageDirectory().listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                if (!owned.contains(file.getPath())) {
+                    deleteFile(file.getPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Empty files from {@link ImageNames#createImageFile} (capture cancelled or the app killed before it returned).
+     */
+    private void sweepCaptureFiles(List<Job> jobs) {
+        File directory = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        File[] files = directory != null ? directory.listFiles() : null;
+
+        if (files == null) {
+            return;
+        }
+
+        Set<String> owned = new HashSet<>();
+
+        for (Job job : jobs) {
+            owned.add(job.source.getPath());
+        }
+
+        long before = System.currentTimeMillis() - ORPHAN_AGE_MS;
+
+        for (File file : files) {
+            if (file.getName().startsWith(ImageNames.PREFIX) && file.length() == 0 && file.lastModified() < before
+                    && !owned.contains(file.getPath())) {
+                deleteFile(file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Pending records of this app that no job is writing (e.g. a synchronous store killed mid-write).
+     */
+    @RequiresApi(Build.VERSION_CODES.Q)
+    @SuppressWarnings("deprecation")
+    private void sweepPendingRecords(List<Job> jobs) {
+        Set<String> owned = new HashSet<>();
+
+        for (Job job : jobs) {
+            if (job.pendingUri != null) {
+                owned.add(job.pendingUri);
+            }
+        }
+
+        Uri collection = MediaStoreStorage.DEFAULT.getCollection();
+        ContentResolver resolver = context.getContentResolver();
+        long before = (System.currentTimeMillis() - ORPHAN_AGE_MS) / 1000;
+
+        List<Uri> orphans = new ArrayList<>();
+
+        try (Cursor cursor = resolver.query(MediaStore.setIncludePending(collection), new String[] { MediaStore.Images.Media._ID },
+                MediaStore.Images.Media.IS_PENDING + " = 1 AND " + MediaStore.Images.Media.OWNER_PACKAGE_NAME + " = ? AND "
+                        + MediaStore.Images.Media.DATE_ADDED + " < ?",
+                new String[] { context.getPackageName(), String.valueOf(before) }, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                Uri uri = ContentUris.withAppendedId(collection, cursor.getLong(0));
+
+                if (!owned.contains(uri.toString())) {
+                    orphans.add(uri);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(ImageJobs.class.getSimpleName(), e.getMessage(), e);
+        }
+
+        for (Uri uri : orphans) {
+            try {
+                resolver.delete(uri, null, null);
+            } catch (Exception e) {
+                Log.e(ImageJobs.class.getSimpleName(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private void deletePending(Job job) {
+        if (job.pendingUri != null && job.stage != Stage.STORED) {
+            try {
+                context.getContentResolver().delete(Uri.parse(job.pendingUri), null, null);
+            } catch (Exception e) {
+                Log.e(ImageJobs.class.getSimpleName(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private void notify(Job job) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onJobChanged(job);
+            } catch (RuntimeException e) {
+                Log.e(ImageJobs.class.getSimpleName(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private void update(long id, ContentValues values) {
+        getWritableDatabase().update(TABLE, values, ID + " = ?", new String[] { String.valueOf(id) });
+    }
+
+    private List<Job> query(@Nullable String selection, @Nullable String[] args, @Nullable String orderBy, @Nullable String limit) {
+        List<Job> jobs = new ArrayList<>();
+
+        try (Cursor cursor = getReadableDatabase().query(TABLE, null, selection, args, null, null, orderBy, limit)) {
+            while (cursor.moveToNext()) {
+                jobs.add(read(cursor));
+            }
+        }
+
+        return jobs;
+    }
+
+    private static Job read(Cursor cursor) {
+        Job job = new Job();
+
+        job.id = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
+        job.type = Type.valueOf(cursor.getString(cursor.getColumnIndexOrThrow(TYPE)));
+        job.source = Uri.parse(cursor.getString(cursor.getColumnIndexOrThrow(SOURCE)));
+        job.title = cursor.getString(cursor.getColumnIndexOrThrow(TITLE));
+        job.width = cursor.getInt(cursor.getColumnIndexOrThrow(WIDTH));
+        job.height = cursor.getInt(cursor.getColumnIndexOrThrow(HEIGHT));
+        job.quality = cursor.getInt(cursor.getColumnIndexOrThrow(QUALITY));
+        job.maxBytes = cursor.getInt(cursor.getColumnIndexOrThrow(MAX_BYTES));
+        job.storage = cursor.getString(cursor.getColumnIndexOrThrow(STORAGE));
+        job.target = cursor.getString(cursor.getColumnIndexOrThrow(TARGET));
+        job.deleteSource = cursor.getInt(cursor.getColumnIndexOrThrow(DELETE_SOURCE)) != 0;
+        job.state = State.valueOf(cursor.getString(cursor.getColumnIndexOrThrow(STATE)));
+        job.stage = Stage.valueOf(cursor.getString(cursor.getColumnIndexOrThrow(STAGE)));
+        job.stageFile = cursor.getString(cursor.getColumnIndexOrThrow(STAGE_FILE));
+        job.pendingUri = cursor.getString(cursor.getColumnIndexOrThrow(PENDING_URI));
+        job.output = cursor.getString(cursor.getColumnIndexOrThrow(OUTPUT));
+        job.attempts = cursor.getInt(cursor.getColumnIndexOrThrow(ATTEMPTS));
+        job.nextRun = cursor.getLong(cursor.getColumnIndexOrThrow(NEXT_RUN));
+        job.error = cursor.getString(cursor.getColumnIndexOrThrow(ERROR));
+
+        return job;
+    }
+
+    private File getStageDirectory() {
+        File directory = new File(context.getCacheDir(), STAGE_DIRECTORY);
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(ImageJobs.class.getSimpleName(), "Cannot create " + directory);
+        }
+
+        return directory;
+    }
+
+    private static ByteBuffer map(String path) throws IOException {
+        if (path == null) {
+            throw new FileNotFoundException("Stage file missing.");
+        }
+
+        try (FileInputStream in = new FileInputStream(path); FileChannel channel = in.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static void deleteFile(@Nullable String path) {
+        if (path != null) {
+            File file = new File(path);
+
+            if (file.exists() && !file.delete()) {
+                Log.e(ImageJobs.class.getSimpleName(), "Cannot delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Storages are journaled by their location, only the built-in ones can be restored.
+     */
+    private static String toString(ImageStorage storage) {
+        if (storage instanceof MediaStoreStorage) {
+            MediaStoreStorage media = (MediaStoreStorage) storage;
+            return STORAGE_MEDIA + STORAGE_SEPARATOR + media.getCollection() + STORAGE_SEPARATOR + media.getRelativePath();
+        }
+
+        if (storage instanceof FileStorage) {
+            FileStorage files = (FileStorage) storage;
+            String authority = files.getAuthority();
+
+            return STORAGE_FILE + STORAGE_SEPARATOR + files.getDirectory().getAbsolutePath()
+                    + (authority != null ? STORAGE_SEPARATOR + authority : "");
+        }
+
+        throw new IllegalArgumentException("Storage cannot be journaled: " + storage.getClass().getName());
+    }
+
+    private static ImageStorage toStorage(String value) throws IOException {
+        String[] parts = value != null ? value.split("\\" + STORAGE_SEPARATOR) : new String[0];
+
+        if (parts.length == 3 && STORAGE_MEDIA.equals(parts[0])) {
+            return new MediaStoreStorage(Uri.parse(parts[1]), parts[2]);
+        }
+
+        if (parts.length >= 2 && STORAGE_FILE.equals(parts[0])) {
+            return new FileStorage(new File(parts[1])).useFileProvider(parts.length > 2 ? parts[2] : null);
+        }
+
+        throw new IOException("Unknown storage: " + value);
+    }
+}
@@ -0,0 +1,229 @@
+package you.thiago.imagehelper;
+
+import android.net.Uri;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Per stage instrumentation of the image pipeline.
+ *
+ * Nothing is measured unless a listener is installed or trace sections are enabled: the pipeline checks
+ * {@link #start(Uri)} once per request and every {@link #stage(Tracker, Stage)} of a null tracker is a no-op.
+ * Stages are {@link Section}s used with try-with-resources, so a stage that throws still ends its trace section.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageMetrics {
+
+    private static final String TRACE_PREFIX = "ImageHelper:";
+
+    @Nullable
+    private static volatile ImageMetricsListener listener;
+
+    private static volatile boolean traceEnabled;
+
+    public enum Stage {
+        PROBE,
+        BOUNDS,
+        OPEN,
+        DECODE,
+        SCALE,
+        ROTATE,
+        COMPRESS,
+        INSERT
+    }
+
+    public static class Event {
+
+        public Stage stage;
+        public long durationNanos;
+
+        @Nullable
+        public String uri;
+
+        public int sourceWidth;
+        public int sourceHeight;
+        public int sampleSize;
+
+        /* -1 when not known for the stage */
+        public long decodedBytes = -1;
+        public long outputBytes = -1;
+
+        /* null when the stage has no cache */
+        @Nullable
+        public Boolean cacheHit;
+
+        public String thread;
+    }
+
+    /**
+     * Tracks the stages of a single request.
+     */
+    public static class Tracker {
+
+        private final ImageMetricsListener listener;
+        private final boolean trace;
+        private final String uri;
+
+        private int sourceWidth;
+        private int sourceHeight;
+        private int sampleSize;
+
+        @Nullable
+        private Boolean cacheHit;
+
+        Tracker(@Nullable ImageMetricsListener listener, boolean trace, @Nullable Uri uri) {
+            this.listener = listener;
+            this.trace = trace;
+            this.uri = uri != null ? uri.toString() : null;
+        }
+
+        public void setSource(int width, int height) {
+            sourceWidth = width;
+            sourceHeight = height;
+        }
+
+        public void setSampleSize(int sampleSize) {
+            this.sampleSize = sampleSize;
+        }
+
+        public void setCacheHit(boolean cacheHit) {
+            this.cacheHit = cacheHit;
+        }
+
+        public Section begin(@NonNull Stage stage) {
+            cacheHit = null;
+
+            if (trace) {
+                Trace.beginSection(TRACE_PREFIX + stage.name());
+            }
+
+            return new Section(this, stage);
+        }
+
+        private void end(Section section, long decodedBytes, long outputBytes) {
+            long duration = System.nanoTime() - section.start;
+
+            if (trace) {
+                Trace.endSection();
+            }
+
+            if (listener == null) {
+                return;
+            }
+
+            Event event = new Event();
+            event.stage = section.stage;
+            event.durationNanos = duration;
+            event.uri = uri;
+            event.sourceWidth = sourceWidth;
+            event.sourceHeight = sourceHeight;
+            event.sampleSize = sampleSize;
+            event.decodedBytes = decodedBytes;
+            event.outputBytes = outputBytes;
+            event.cacheHit = cacheHit;
+            event.thread = Thread.currentThread().getName();
+
+            try {
+                listener.onStage(event);
+            } catch (RuntimeException ignore) {
+                // a broken listener must not break the pipeline
+            }
+        }
+    }
+
+    /**
+     * A running stage, ended when closed (also when the stage throws). Sections of a disabled request do nothing.
+     */
+    public static class Section implements AutoCloseable {
+
+        private static final Section NONE = new Section(null, null);
+
+        @Nullable
+        private final Tracker tracker;
+        private final Stage stage;
+        private final long start;
+
+        private long decodedBytes = -1;
+        private long outputBytes = -1;
+        private boolean closed;
+
+        private Section(@Nullable Tracker tracker, Stage stage) {
+            this.tracker = tracker;
+            this.stage = stage;
+            this.start = tracker != null ? System.nanoTime() : 0;
+        }
+
+        public void setSource(int width, int height) {
+            if (tracker != null) {
+                tracker.setSource(width, height);
+            }
+        }
+
+        public void setSampleSize(int sampleSize) {
+            if (tracker != null) {
+                tracker.setSampleSize(sampleSize);
+            }
+        }
+
+        /**
+         * Sizes reported with the stage event, -1 when not known.
+         */
+        public void setBytes(long decodedBytes, long outputBytes) {
+            if (tracker == null) {
+                return;
+            }
+
+            this.decodedBytes = decodedBytes;
+            this.outputBytes = outputBytes;
+        }
+
+        @Override
+        public void close() {
+            if (tracker == null || closed) {
+                return;
+            }
+
+            closed = true;
+            tracker.end(this, decodedBytes, outputBytes);
+        }
+    }
+
+    /**
+     * Begin stage on tracker, or a no-op section when tracker is null (metrics disabled for the request).
+     */
+    public static Section stage(@Nullable Tracker tracker, @NonNull Stage stage) {
+        return tracker != null ? tracker.begin(stage) : Section.NONE;
+    }
+
+    public static void setListener(@Nullable ImageMetricsListener listener) {
+        ImageMetrics.listener = listener;
+    }
+
+    /**
+     * Emit an android.os.Trace section per stage (visible on Perfetto/systrace).
+     */
+    public static void setTraceEnabled(boolean enabled) {
+        traceEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return listener != null || traceEnabled;
+    }
+
+    /**
+     * Tracker for a new request, or null when metrics are disabled.
+     */
+    @Nullable
+    public static Tracker start(@Nullable Uri uri) {
+        ImageMetricsListener current = listener;
+        boolean trace = traceEnabled;
+
+        if (current == null && !trace) {
+            return null;
+        }
+
+        return new Tracker(current, trace, uri);
+    }
+}
@@ -0,0 +1,11 @@
+package you.thiago.imagehelper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives one event per pipeline stage. Called synchronously on the thread running the stage, keep it quick.
+ */
+public interface ImageMetricsListener {
+
+    void onStage(@NonNull ImageMetrics.Event event);
+}
@@ -0,0 +1,175 @@
+package you.thiago.imagehelper;
+
+import android.content.Context;
+import android.os.Environment;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collision free image names ("img_yyyyMMddHHmmss_SSS_xxx") and image file allocation.
+ *
+ * Names are built from a monotonic millisecond tick (never repeated in the process, even under bursts)
+ * plus a random per process suffix, so parallel imports never produce duplicated MediaStore display names.
+ * No lock is taken: ticks are reserved with a CAS and the date part is formatted once per second.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageNames {
+
+    public static final String PREFIX = "img_";
+    public static final String EXTENSION = ".jpeg";
+
+    private static final String PATTERN = "yyyyMMddHHmmss";
+
+    private static final AtomicLong lastTick = new AtomicLong();
+
+    private static final String processSuffix = Integer.toString(36 * 36 + new Random().nextInt(36 * 36 * 35), 36);
+
+    private static volatile Stamp stamp;
+
+    private static volatile File picturesDirectory;
+
+    private static class Stamp {
+
+        final long second;
+        final String text;
+
+        Stamp(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
+    public static String next() {
+        return format(reserveTicks(1));
+    }
+
+    /**
+     * Reserve count names at once (a single CAS for the whole batch).
+     */
+    public static String[] reserve(int count) {
+        String[] names = new String[count];
+
+        if (count > 0) {
+            long first = reserveTicks(count);
+
+            for (int i = 0; i < count; i++) {
+                names[i] = format(first + i);
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Create an empty image file named after title on the app pictures dir (external files).
+     *
+     * The dir is resolved once and only checked again when creating the file fails.
+     */
+    public static File createImageFile(@NonNull Context context, @NonNull String title) throws IOException {
+        File directory = getPicturesDirectory(context);
+        File file = new File(directory, title + EXTENSION);
+
+        try {
+            if (file.createNewFile()) {
+                return file;
+            }
+        } catch (IOException e) {
+            // dir may have been removed (cleared data, unmounted storage)
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException(context.getString(R.string.img_dir_not_found), e);
+            }
+
+            if (file.createNewFile()) {
+                return file;
+            }
+        }
+
+        // names are unique in the process, this only happens with a file left by another process
+        return File.createTempFile(title, EXTENSION, directory);
+    }
+
+    /**
+     * Reserve count names and preallocate their (empty) files.
+     */
+    public static File[] createImageFiles(@NonNull Context context, int count) throws IOException {
+        String[] names = reserve(count);
+        File[] files = new File[count];
+
+        for (int i = 0; i < count; i++) {
+            files[i] = createImageFile(context, names[i]);
+        }
+
+        return files;
+    }
+
+    /**
+     * Title (name without extension) of a file created by {@link #createImageFile(Context, String)}.
+     */
+    public static String getTitle(@NonNull File file) {
+        String name = file.getName();
+        return name.endsWith(EXTENSION) ? name.substring(0, name.length() - EXTENSION.length()) : name;
+    }
+
+    private static File getPicturesDirectory(Context context) throws IOException {
+        File directory = picturesDirectory;
+
+        if (directory == null) {
+            directory = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+
+            if (directory == null) {
+                throw new IOException(context.getString(R.string.img_dir_not_found));
+            }
+
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException(context.getString(R.string.img_dir_not_found));
+            }
+
+            picturesDirectory = directory;
+        }
+
+        return directory;
+    }
+
+    private static long reserveTicks(int count) {
+        while (true) {
+            long last = lastTick.get();
+            long first = Math.max(System.currentTimeMillis(), last + 1);
+
+            if (lastTick.compareAndSet(last, first + count - 1)) {
+                return first;
+            }
+        }
+    }
+
+    private static String format(long tick) {
+        long second = tick / 1000;
+        int millis = (int) (tick % 1000);
+
+        Stamp current = stamp;
+
+        if (current == null || current.second != second) {
+            current = new Stamp(second, new SimpleDateFormat(PATTERN, Locale.US).format(new Date(second * 1000)));
+            stamp = current;
+        }
+
+        StringBuilder name = new StringBuilder(PREFIX.length() + PATTERN.length() + 8);
+        name.append(PREFIX).append(current.text).append('_');
+
+        if (millis < 100) {
+            name.append('0');
+        }
+        if (millis < 10) {
+            name.append('0');
+        }
+
+        return name.append(millis).append('_').append(processSuffix).toString();
+    }
+}
@@ -0,0 +1,180 @@
+package you.thiago.imagehelper;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import you.thiago.imagehelper.core.ImageHeader;
+
+/**
+ * Lightweight probe of image dimensions and orientation.
+ *
+ * Only the header is read, parsed by {@link ImageHeader}. Results are cached by uri, size and modified time,
+ * so the same image is not parsed again by each step of the pipeline.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageProbe {
+
+    public static final String MIME_JPEG = ImageHeader.MIME_JPEG;
+    public static final String MIME_PNG = ImageHeader.MIME_PNG;
+    public static final String MIME_WEBP = ImageHeader.MIME_WEBP;
+    public static final String MIME_HEIF = ImageHeader.MIME_HEIF;
+
+    private static final int CACHE_SIZE = 64;
+
+    private static final LruCache<String, Info> cache = new LruCache<>(CACHE_SIZE);
+
+    public static class Info extends ImageHeader {
+
+        public Info() {}
+
+        public Info(@NonNull ImageHeader header) {
+            super(header);
+        }
+    }
+
+    /**
+     * Probe the image header, using the cached result when the source did not change.
+     *
+     * @return null if the header could not be read or the format is not supported
+     */
+    @Nullable
+    public static Info probe(@NonNull Context context, @NonNull Uri uri) {
+        return probe(context, uri, null);
+    }
+
+    @Nullable
+    static Info probe(@NonNull Context context, @NonNull Uri uri, @Nullable ImageMetrics.Tracker metrics) {
+        try {
+            if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null) {
+                File file = new File(uri.getPath());
+                String key = getCacheKey(uri, file.length(), file.lastModified());
+
+                Info info = cache.get(key);
+
+                if (metrics != null) {
+                    metrics.setCacheHit(info != null);
+                }
+
+                if (info == null) {
+                    try (InputStream in = new FileInputStream(file)) {
+                        info = put(key, read(in));
+                    }
+                }
+
+                return info;
+            }
+
+            ParcelFileDescriptor descriptor = null;
+
+            try {
+                descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+            } catch (IOException | UnsupportedOperationException | SecurityException e) {
+                // provider without file descriptors, read stream below (not cached, no size/mtime to key it)
+            }
+
+            if (descriptor != null) {
+                try {
+                    String key = getCacheKey(uri, descriptor);
+                    Info info = cache.get(key);
+
+                    if (metrics != null) {
+                        metrics.setCacheHit(info != null);
+                    }
+
+                    if (info == null) {
+                        try (InputStream in = new FileInputStream(descriptor.getFileDescriptor())) {
+                            info = put(key, read(in));
+                        }
+                    }
+
+                    return info;
+                } finally {
+                    descriptor.close();
+                }
+            }
+
+            try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                return in != null ? read(in) : null;
+            }
+        } catch (Exception e) {
+            Log.e(ImageProbe.class.getSimpleName(), e.getMessage(), e);
+        }
+
+        return null;
+    }
+
+    public static void clearCache() {
+        cache.evictAll();
+    }
+
+    /**
+     * Read image header from stream. The stream is left open and positioned somewhere after the header.
+     *
+     * @return null if the format is not supported
+     */
+    @Nullable
+    public static Info read(@NonNull InputStream in) throws IOException {
+        ImageHeader header = ImageHeader.read(in);
+
+        return header != null ? new Info(header) : null;
+    }
+
+    @Nullable
+    private static Info put(String key, @Nullable Info info) {
+        if (info != null) {
+            cache.put(key, info);
+        }
+
+        return info;
+    }
+
+    /**
+     * Key of the current content of uri (uri, size and mtime, as the probe cache uses), for other caches of
+     * derived data. Null when the provider has no file descriptor to stat.
+     */
+    @Nullable
+    static String getSourceKey(@NonNull Context context, @NonNull Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null) {
+            File file = new File(uri.getPath());
+            return getCacheKey(uri, file.length(), file.lastModified());
+        }
+
+        try (ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r")) {
+            return descriptor != null ? getCacheKey(uri, descriptor) : null;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private static String getCacheKey(Uri uri, long size, long modified) {
+        return uri + "#" + size + "#" + modified;
+    }
+
+    private static String getCacheKey(Uri uri, ParcelFileDescriptor descriptor) {
+        long modified = 0;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                StructStat stat = Os.fstat(descriptor.getFileDescriptor());
+                modified = stat.st_mtime;
+            } catch (Exception ignore) {}
+        }
+
+        return getCacheKey(uri, descriptor.getStatSize(), modified);
+    }
+}
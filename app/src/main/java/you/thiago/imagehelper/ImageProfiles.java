@@ -0,0 +1,382 @@
+package you.thiago.imagehelper;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import you.thiago.imagehelper.core.ParallelKernels;
+
+/**
+ * Output limits picked from what the device can handle, instead of the Android version.
+ *
+ * The tier comes from the memory class, isLowRamDevice, the core count and a one-time micro-benchmark of
+ * JPEG compress + decode throughput (run in background and persisted, again only after a system update).
+ * The first {@link #get(Context)} starts from the memory/core tier, the persisted throughput is read in background
+ * too, so it does no disk I/O on the calling (often main) thread.
+ * While the app is under memory pressure (onTrimMemory) the tier is lowered for {@link #PRESSURE_HOLD_MS}.
+ *
+ * Until {@link #get(Context)} is called the profile is {@link Tier#HIGH} (no limits).
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageProfiles {
+
+    public static final long PRESSURE_HOLD_MS = 60 * 1000;
+
+    private static final String PREFERENCES = "you.thiago.imagehelper.profiles";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_THROUGHPUT = "throughput";
+
+    /* compress + decode throughput (megapixels per second) under which the tier is lowered */
+    private static final float LOW_THROUGHPUT = 4f;
+    private static final float MEDIUM_THROUGHPUT = 12f;
+
+    /* memory class (MB) under which the tier is lowered */
+    private static final int LOW_MEMORY_CLASS = 64;
+    private static final int MEDIUM_MEMORY_CLASS = 128;
+
+    private static final int BENCHMARK_WIDTH = 640;
+    private static final int BENCHMARK_HEIGHT = 480;
+    private static final int BENCHMARK_ROUNDS = 3;
+
+    public enum Tier {
+        LOW,
+        MEDIUM,
+        HIGH
+    }
+
+    public static class Profile {
+
+        public final Tier tier;
+
+        public final int maxWidth;
+        public final int maxHeight;
+        public final int maxQuality;
+
+        /* decode config of resized images */
+        public final Bitmap.Config config;
+
+        /* threads for the pixel kernels, 1 disables them */
+        public final int parallelism;
+
+        Profile(Tier tier, int maxWidth, int maxHeight, int maxQuality, Bitmap.Config config, int parallelism) {
+            this.tier = tier;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.maxQuality = maxQuality;
+            this.config = config;
+            this.parallelism = parallelism;
+        }
+
+        public int getWidth(int width) {
+            return Math.min(width, maxWidth);
+        }
+
+        public int getHeight(int height) {
+            return Math.min(height, maxHeight);
+        }
+
+        public int getQuality(int quality) {
+            return Math.min(quality, maxQuality);
+        }
+
+        static Profile forTier(Tier tier, int cores) {
+            switch (tier) {
+                case LOW: {
+                    return new Profile(tier, ImageComponent.LOWER_IMG_MAX_WIDTH, ImageComponent.LOWER_IMG_MAX_HEIGHT,
+                            ImageComponent.LOWER_IMG_QUALITY, Bitmap.Config.RGB_565, 1);
+                }
+                case MEDIUM: {
+                    return new Profile(tier, 2048, 1536, 90, Bitmap.Config.ARGB_8888, Math.max(1, Math.min(cores, 2)));
+                }
+                default: {
+                    return new Profile(tier, Integer.MAX_VALUE, Integer.MAX_VALUE, 100, Bitmap.Config.ARGB_8888, cores);
+                }
+            }
+        }
+    }
+
+    private static final Object lock = new Object();
+
+    private static volatile Profile measured = Profile.forTier(Tier.HIGH, Runtime.getRuntime().availableProcessors());
+
+    /* parallelism the kernel pool was set for, and the pool created for it (null for the default one) */
+    private static int appliedParallelism = -1;
+    private static ForkJoinPool pool;
+
+    private static volatile Tier pressureTier;
+    private static volatile long pressureUntil;
+
+    private static volatile Tier override;
+
+    private static boolean initialized;
+    private static boolean callbacksRegistered;
+
+    /**
+     * Current profile, measuring the device on the first call (preferences and micro-benchmark in background).
+     */
+    @NonNull
+    public static Profile get(@NonNull Context context) {
+        init(context);
+        return getCurrent();
+    }
+
+    /**
+     * Current profile without measuring (for callers without a context).
+     */
+    @NonNull
+    public static Profile getCurrent() {
+        Tier tier = override != null ? override : measured.tier;
+
+        if (pressureTier != null && SystemClock.elapsedRealtime() < pressureUntil && pressureTier.ordinal() < tier.ordinal()) {
+            tier = pressureTier;
+        }
+
+        return tier == measured.tier ? measured : Profile.forTier(tier, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Force a tier (null to go back to the measured one).
+     */
+    public static void setOverride(Tier tier) {
+        override = tier;
+        update();
+    }
+
+    /**
+     * Forget the persisted benchmark, the device is measured again on the next {@link #get(Context)}.
+     */
+    public static void reset(@NonNull Context context) {
+        getPreferences(context).edit().clear().apply();
+
+        synchronized (lock) {
+            initialized = false;
+        }
+    }
+
+    private static void init(Context context) {
+        synchronized (lock) {
+            if (initialized) {
+                return;
+            }
+
+            initialized = true;
+        }
+
+        Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        Tier tier = getStaticTier(appContext);
+
+        measured = Profile.forTier(tier, Runtime.getRuntime().availableProcessors());
+        update();
+
+        measure(appContext, tier);
+
+        synchronized (lock) {
+            // reset() measures again, the callbacks stay registered
+            if (callbacksRegistered) {
+                return;
+            }
+
+            callbacksRegistered = true;
+        }
+
+        appContext.registerComponentCallbacks(new TrimCallbacks());
+    }
+
+    /**
+     * Tier from memory class, low ram flag and core count.
+     */
+    private static Tier getStaticTier(Context context) {
+        ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        if (manager == null) {
+            return Tier.MEDIUM;
+        }
+
+        int memoryClass = manager.getMemoryClass();
+
+        if (manager.isLowRamDevice() || memoryClass <= LOW_MEMORY_CLASS || cores <= 1) {
+            return Tier.LOW;
+        }
+        if (memoryClass < MEDIUM_MEMORY_CLASS || cores <= 2) {
+            return Tier.MEDIUM;
+        }
+
+        return Tier.HIGH;
+    }
+
+    private static Tier getThroughputTier(float throughput) {
+        if (throughput < LOW_THROUGHPUT) {
+            return Tier.LOW;
+        }
+        if (throughput < MEDIUM_THROUGHPUT) {
+            return Tier.MEDIUM;
+        }
+
+        return Tier.HIGH;
+    }
+
+    /**
+     * Lower the static tier by the persisted throughput, or by a new benchmark when this build has none.
+     */
+    private static void measure(Context context, Tier staticTier) {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            try {
+                SharedPreferences preferences = getPreferences(context);
+                float throughput = Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null))
+                        ? preferences.getFloat(KEY_THROUGHPUT, -1f) : -1f;
+
+                if (throughput <= 0) {
+                    throughput = measureThroughput();
+
+                    preferences.edit()
+                            .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                            .putFloat(KEY_THROUGHPUT, throughput)
+                            .apply();
+                }
+
+                measured = Profile.forTier(min(staticTier, getThroughputTier(throughput)), Runtime.getRuntime().availableProcessors());
+                update();
+            } catch (Exception e) {
+                Log.e(ImageProfiles.class.getSimpleName(), e.getMessage(), e);
+            }
+        }, "ImageProfiles");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Megapixels per second of a JPEG compress + decode round trip of a small synthetic image
+     * (best of a few rounds, the first one warms up the codec).
+     */
+    private static float measureThroughput() {
+        Bitmap bitmap = Bitmap.createBitmap(BENCHMARK_WIDTH, BENCHMARK_HEIGHT, Bitmap.Config.ARGB_8888);
+        int[] row = new int[BENCHMARK_WIDTH];
+
+        for (int y = 0; y < BENCHMARK_HEIGHT; y++) {
+            for (int x = 0; x < BENCHMARK_WIDTH; x++) {
+                row[x] = 0xFF000000 | ((x * 255 / BENCHMARK_WIDTH) << 16) | ((y * 255 / BENCHMARK_HEIGHT) << 8) | ((x ^ y) & 0xFF);
+            }
+
+            bitmap.setPixels(row, 0, BENCHMARK_WIDTH, 0, y, BENCHMARK_WIDTH, 1);
+        }
+
+        PixelArena arena = PixelArena.get();
+        long best = Long.MAX_VALUE;
+
+        try {
+            for (int i = 0; i <= BENCHMARK_ROUNDS; i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+
+                PixelArena.Output output = arena.getOutput();
+                bitmap.compress(Bitmap.CompressFormat.JPEG, ImageComponent.DEFAULT_IMG_QUALITY, output);
+
+                ByteBuffer data = output.data();
+                byte[] jpeg = new byte[data.remaining()];
+                data.get(jpeg);
+
+                Bitmap decoded = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+
+                if (decoded != null) {
+                    decoded.recycle();
+                }
+
+                if (i > 0) {
+                    best = Math.min(best, SystemClock.elapsedRealtimeNanos() - start);
+                }
+            }
+        } finally {
+            arena.release();
+            bitmap.recycle();
+        }
+
+        return (BENCHMARK_WIDTH * BENCHMARK_HEIGHT / 1_000_000f) / (Math.max(1, best) / 1_000_000_000f);
+    }
+
+    /**
+     * Pixel kernels follow the current profile parallelism, called when measured, override or pressureTier change.
+     * Profiles with a parallelism of 1 are not applied here, ImageHelper skips the kernels for them.
+     */
+    private static void update() {
+        int parallelism = getCurrent().parallelism;
+
+        synchronized (lock) {
+            if (parallelism <= 1 || parallelism == appliedParallelism) {
+                return;
+            }
+
+            appliedParallelism = parallelism;
+
+            ForkJoinPool previous = pool;
+            pool = parallelism < ParallelKernels.getDefaultParallelism() ? new ForkJoinPool(parallelism) : null;
+
+            ParallelKernels.setPool(pool);
+
+            if (previous != null) {
+                // running kernels finish their stripes, new ones fall back to the calling thread until they see the new pool
+                previous.shutdown();
+            }
+        }
+    }
+
+    private static Tier min(Tier first, Tier second) {
+        return first.ordinal() <= second.ordinal() ? first : second;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    private static void onPressure(Tier tier) {
+        pressureTier = tier;
+        pressureUntil = SystemClock.elapsedRealtime() + PRESSURE_HOLD_MS;
+        update();
+
+        // back to the unpressured profile once the hold is over (trim callbacks run on the main thread)
+        new Handler(Looper.getMainLooper()).postDelayed(ImageProfiles::update, PRESSURE_HOLD_MS);
+    }
+
+    private static class TrimCallbacks implements ComponentCallbacks2 {
+
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+                onPressure(Tier.LOW);
+                ImageCache.clear();
+                PixelArena.trimAll();
+            } else if (level == TRIM_MEMORY_RUNNING_MODERATE) {
+                onPressure(Tier.MEDIUM);
+                PixelArena.trimAll();
+            } else if (level >= TRIM_MEMORY_BACKGROUND) {
+                ImageCache.clear();
+                PixelArena.trimAll();
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration configuration) {}
+    }
+}
@@ -0,0 +1,269 @@
+package you.thiago.imagehelper;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-flight table of image requests: identical concurrent requests (same key) share one computation and its result.
+ *
+ * Each caller gets its own {@link Handle}. Cancelling a handle only drops that waiter, the work itself is cancelled
+ * (and interrupted) when the last waiter cancels. Finished requests leave the table, results are not cached.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageRequests {
+
+    private static final int MAX_WORKERS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ConcurrentHashMap<Key, Request<?>> inFlight = new ConcurrentHashMap<>();
+
+    private static volatile ExecutorService executor;
+
+    /**
+     * Join the request running for key, or start task for it.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Handle<T> join(@NonNull Key key, @NonNull Callable<T> task) {
+        while (true) {
+            Request<T> request = (Request<T>) inFlight.get(key);
+
+            if (request == null) {
+                // created with its first waiter, so it cannot be cancelled before this caller holds it
+                Request<T> created = new Request<>(key, task);
+                request = (Request<T>) inFlight.putIfAbsent(key, created);
+
+                if (request == null) {
+                    getExecutor().execute(created);
+                    return new Handle<>(created);
+                }
+            }
+
+            if (request.acquire()) {
+                return new Handle<>(request);
+            }
+
+            // cancelled by its last waiter meanwhile, start a new one
+            inFlight.remove(key, request);
+        }
+    }
+
+    /**
+     * Shared {@link ImageHelper#resizeImage} (title generated by {@link ImageNames}, stored once for every waiter).
+     */
+    public static Handle<ImageHelper.Image> resize(@NonNull Context context, @NonNull Uri uri, int maxWidth, int maxHeight, int quality, int maxBytes, @NonNull ImageStorage storage) {
+        Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+
+        return join(key("resize", uri, maxWidth, maxHeight, quality, maxBytes, storage.getKey()),
+                () -> ImageHelper.resizeImage(appContext, uri, ImageNames.next(), maxWidth, maxHeight, quality, maxBytes, storage));
+    }
+
+    /**
+     * Shared {@link ImageHelper#resizeImageOnce}: content resized before with the same parameters returns the
+     * previous output.
+     */
+    public static Handle<ImageHelper.Image> resizeOnce(@NonNull Context context, @NonNull Uri uri, int maxWidth, int maxHeight, int quality, int maxBytes, @NonNull ImageStorage storage) {
+        Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+
+        return join(key("resizeOnce", uri, maxWidth, maxHeight, quality, maxBytes, storage.getKey()),
+                () -> ImageHelper.resizeImageOnce(appContext, uri, ImageNames.next(), maxWidth, maxHeight, quality, maxBytes, storage));
+    }
+
+    /**
+     * Key from the request parameters, compared with equals (objects without equals by identity, pass a storage
+     * as {@link ImageStorage#getKey()}, ImageStorage factories return a new instance on each call).
+     */
+    public static Key key(Object... parts) {
+        return new Key(parts);
+    }
+
+    /**
+     * Requests currently running (or queued).
+     */
+    public static int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * True while a request for key is running (or queued).
+     */
+    static boolean isInFlight(@NonNull Key key) {
+        return inFlight.containsKey(key);
+    }
+
+    private static ExecutorService getExecutor() {
+        if (executor == null) {
+            synchronized (ImageRequests.class) {
+                if (executor == null) {
+                    int workers = Math.max(2, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()));
+                    AtomicInteger count = new AtomicInteger();
+
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "ImageRequests-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+
+                        return thread;
+                    });
+                    pool.allowCoreThreadTimeOut(true);
+
+                    executor = pool;
+                }
+            }
+        }
+
+        return executor;
+    }
+
+    public static final class Key {
+
+        private final Object[] parts;
+        private final int hash;
+
+        Key(Object[] parts) {
+            this.parts = parts;
+            this.hash = Arrays.hashCode(parts);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return this == other || (other instanceof Key && Arrays.equals(parts, ((Key) other).parts));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return Arrays.toString(parts);
+        }
+    }
+
+    /**
+     * A waiter of a shared request. get() blocks until the shared result is ready; when the waiting thread is
+     * interrupted the handle is cancelled (so coroutines can wait with runInterruptible).
+     */
+    public static final class Handle<T> implements Future<T> {
+
+        private final Request<T> request;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        Handle(Request<T> request) {
+            this.request = request;
+        }
+
+        /**
+         * Stop waiting. The shared work is cancelled only if no other waiter is left.
+         *
+         * @return false if this handle was already cancelled or the result is ready
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (request.isDone() || !cancelled.compareAndSet(false, true)) {
+                return false;
+            }
+
+            request.release(mayInterruptIfRunning);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled.get() || request.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            checkCancelled();
+
+            try {
+                return request.get();
+            } catch (InterruptedException e) {
+                cancel(true);
+                throw e;
+            }
+        }
+
+        @Override
+        public T get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            checkCancelled();
+
+            try {
+                return request.get(timeout, unit);
+            } catch (InterruptedException e) {
+                cancel(true);
+                throw e;
+            }
+        }
+
+        private void checkCancelled() {
+            if (cancelled.get()) {
+                throw new CancellationException("Request cancelled by this waiter.");
+            }
+        }
+    }
+
+    private static final class Request<T> extends FutureTask<T> {
+
+        private final Key key;
+
+        /* guarded by this */
+        private int waiters = 1;
+        private boolean closed;
+
+        Request(Key key, Callable<T> task) {
+            super(task);
+            this.key = key;
+        }
+
+        synchronized boolean acquire() {
+            if (closed) {
+                return false;
+            }
+
+            waiters++;
+            return true;
+        }
+
+        void release(boolean mayInterruptIfRunning) {
+            synchronized (this) {
+                if (--waiters > 0 || isDone()) {
+                    return;
+                }
+
+                closed = true;
+            }
+
+            inFlight.remove(key, this);
+            cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            inFlight.remove(key, this);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package you.thiago.imagehelper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Environment;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Target where resized images are written to.
+ *
+ * Use {@link #mediaStore()} for images that must show up in the gallery, and {@link #privateFiles(Context)}
+ * or {@link #cache(Context)} for outputs that are only needed by the app (uploads, temp files), skipping
+ * the MediaStore IPC and the media scanner.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public abstract class ImageStorage {
+
+    private static final String CACHE_DIRECTORY = "images";
+
+    public static ImageStorage mediaStore() {
+        return MediaStoreStorage.DEFAULT;
+    }
+
+    public static FileStorage privateFiles(@NonNull Context context) {
+        File directory = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+
+        if (directory == null) {
+            directory = new File(context.getFilesDir(), Environment.DIRECTORY_PICTURES);
+        }
+
+        return new FileStorage(directory);
+    }
+
+    public static FileStorage cache(@NonNull Context context) {
+        return new FileStorage(new File(context.getCacheDir(), CACHE_DIRECTORY));
+    }
+
+    @NonNull
+    public abstract Uri store(@NonNull Context context, @NonNull String title, @NonNull Bitmap bitmap, int quality) throws IOException;
+
+    @NonNull
+    public abstract Uri store(@NonNull Context context, @NonNull String title, @NonNull ImageHelper.Compression compression) throws IOException;
+
+    /**
+     * Identifies where this storage writes to, part of the {@link ImageIndex} parameters.
+     */
+    @NonNull
+    public String getKey() {
+        return getClass().getName();
+    }
+
+    interface Writer {
+        void write(OutputStream stream) throws IOException;
+    }
+}
@@ -0,0 +1,243 @@
+package you.thiago.imagehelper;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import you.thiago.imagehelper.core.ImageSizing;
+
+/**
+ * Image thumbnails from the cheapest source available, cached in {@link ImageCache} by uri, size and mtime of the
+ * source (sources without a file descriptor to stat are not cached):
+ *
+ * 1. thumbnail kept by the provider (ContentResolver#loadThumbnail on Q+, MediaStore.Images.Thumbnails before);
+ * 2. thumbnail embedded on the EXIF data, when it is big enough;
+ * 3. subsampled decode of the image, only as a last resort.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageThumbnails {
+
+    /* MediaStore.Images.Thumbnails.MICRO_KIND size */
+    private static final int MICRO_SIZE = 96;
+
+    private ImageThumbnails() {}
+
+    /**
+     * Thumbnail of the image that fits into maxWidth/maxHeight (rotated by its orientation).
+     */
+    @Nullable
+    public static Bitmap getThumbnail(@NonNull Context context, @NonNull Uri uri, int maxWidth, int maxHeight) {
+        String key = getCacheKey(context, uri, maxWidth, maxHeight);
+        Bitmap bitmap = key != null ? ImageCache.get(key) : null;
+
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            bitmap = loadThumbnail(context, uri, maxWidth, maxHeight);
+        } else if (isMediaStore(uri)) {
+            bitmap = loadMediaStoreThumbnail(context, uri, maxWidth, maxHeight);
+        }
+
+        if (bitmap == null) {
+            bitmap = loadExifThumbnail(context, uri, maxWidth, maxHeight);
+        }
+        if (bitmap == null) {
+            bitmap = decodeThumbnail(context, uri, maxWidth, maxHeight);
+        }
+
+        if (key != null) {
+            ImageCache.put(key, bitmap);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Forget the cached thumbnail of an image that was written again (mtime has a coarse resolution on some
+     * file systems, a rewrite of the same size may keep the key).
+     */
+    static void remove(@NonNull Context context, @NonNull Uri uri, int maxWidth, int maxHeight) {
+        String key = getCacheKey(context, uri, maxWidth, maxHeight);
+
+        if (key != null) {
+            ImageCache.remove(key);
+        }
+    }
+
+    /**
+     * Provider thumbnail (MediaStore, documents providers), already rotated by the platform.
+     */
+    @Nullable
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private static Bitmap loadThumbnail(Context context, Uri uri, int maxWidth, int maxHeight) {
+        try {
+            return fit(context.getContentResolver().loadThumbnail(uri, new Size(maxWidth, maxHeight), null), maxWidth, maxHeight);
+        } catch (IOException | UnsupportedOperationException | SecurityException | IllegalArgumentException e) {
+            // provider without thumbnails, try next source
+            return null;
+        }
+    }
+
+    /**
+     * Legacy MediaStore thumbnail, generated and kept by the media scanner (not rotated).
+     */
+    @Nullable
+    @SuppressWarnings("deprecation")
+    private static Bitmap loadMediaStoreThumbnail(Context context, Uri uri, int maxWidth, int maxHeight) {
+        try {
+            int kind = maxWidth <= MICRO_SIZE && maxHeight <= MICRO_SIZE
+                    ? MediaStore.Images.Thumbnails.MICRO_KIND : MediaStore.Images.Thumbnails.MINI_KIND;
+
+            Bitmap thumbnail = MediaStore.Images.Thumbnails.getThumbnail(context.getContentResolver(), ContentUris.parseId(uri), kind, null);
+
+            return thumbnail != null ? rotate(fit(thumbnail, maxWidth, maxHeight), ImageHelper.getOrientation(context, uri)) : null;
+        } catch (RuntimeException e) {
+            Log.e(ImageThumbnails.class.getSimpleName(), e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * EXIF embedded thumbnail, used only if it does not have to be scaled up to fill maxWidth/maxHeight.
+     */
+    @Nullable
+    private static Bitmap loadExifThumbnail(Context context, Uri uri, int maxWidth, int maxHeight) {
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            if (in == null) {
+                return null;
+            }
+
+            ExifInterface exif = new ExifInterface(in);
+
+            if (!exif.hasThumbnail()) {
+                return null;
+            }
+
+            Bitmap thumbnail = exif.getThumbnailBitmap();
+
+            if (thumbnail == null) {
+                return null;
+            }
+
+            int rotation = exif.getRotationDegrees();
+            boolean swap = rotation == 90 || rotation == 270;
+            int width = swap ? thumbnail.getHeight() : thumbnail.getWidth();
+            int height = swap ? thumbnail.getWidth() : thumbnail.getHeight();
+
+            if (width < maxWidth && height < maxHeight) {
+                thumbnail.recycle();
+                return null;
+            }
+
+            return rotate(fit(thumbnail, swap ? maxHeight : maxWidth, swap ? maxWidth : maxHeight), rotation);
+        } catch (IOException | RuntimeException e) {
+            Log.e(ImageThumbnails.class.getSimpleName(), e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Decode with the largest sample size that still fills maxWidth/maxHeight.
+     */
+    @Nullable
+    private static Bitmap decodeThumbnail(Context context, Uri uri, int maxWidth, int maxHeight) {
+        try {
+            ImageProbe.Info info = ImageProbe.probe(context, uri);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+
+            if (info != null && info.hasSize()) {
+                options.outWidth = info.width;
+                options.outHeight = info.height;
+            } else {
+                options.inJustDecodeBounds = true;
+
+                try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                    BitmapFactory.decodeStream(in, null, options);
+                }
+
+                options.inJustDecodeBounds = false;
+            }
+
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            float rotation = info != null && info.hasOrientation() ? info.getRotation() : ImageHelper.getExifOrientation(context, uri);
+            boolean swap = rotation == 90 || rotation == 270;
+            int width = swap ? maxHeight : maxWidth;
+            int height = swap ? maxWidth : maxHeight;
+
+            ImageSizing.Plan plan = ImageSizing.plan(options.outWidth, options.outHeight, width, height);
+            options.inSampleSize = plan.sampleSize;
+            options.inTempStorage = PixelArena.get().getDecodeStorage();
+            options.inPreferredConfig = ImageProfiles.getCurrent().config;
+
+            Bitmap bitmap;
+
+            try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                bitmap = BitmapFactory.decodeStream(in, null, options);
+            }
+
+            return bitmap != null ? rotate(fit(bitmap, width, height), rotation) : null;
+        } catch (IOException | RuntimeException e) {
+            Log.e(ImageThumbnails.class.getSimpleName(), e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private static Bitmap fit(Bitmap bitmap, int maxWidth, int maxHeight) {
+        if (bitmap.getWidth() <= maxWidth && bitmap.getHeight() <= maxHeight) {
+            return bitmap;
+        }
+
+        Bitmap scaled = ImageHelper.scaleDown(bitmap, maxWidth, maxHeight);
+
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+
+        return scaled;
+    }
+
+    private static Bitmap rotate(Bitmap bitmap, float rotation) {
+        if (rotation <= 0) {
+            return bitmap;
+        }
+
+        Bitmap rotated = ImageHelper.rotateImage(bitmap, rotation);
+
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+
+        return rotated;
+    }
+
+    private static boolean isMediaStore(Uri uri) {
+        return ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()) && MediaStore.AUTHORITY.equals(uri.getAuthority());
+    }
+
+    @Nullable
+    private static String getCacheKey(Context context, Uri uri, int maxWidth, int maxHeight) {
+        String source = ImageProbe.getSourceKey(context, uri);
+
+        return source != null ? "thumb:" + source + "#" + maxWidth + "x" + maxHeight : null;
+    }
+}
@@ -0,0 +1,183 @@
+package you.thiago.imagehelper;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Publish images on DCIM/Pictures (or the given relative path) through MediaStore. Before Q the file is written
+ * at that path under the external storage root and then inserted into the collection.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class MediaStoreStorage extends ImageStorage {
+
+    static final MediaStoreStorage DEFAULT = new MediaStoreStorage();
+
+    private final Uri collection;
+    private final String relativePath;
+
+    public MediaStoreStorage() {
+        this(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, Environment.DIRECTORY_DCIM + File.separator + Environment.DIRECTORY_PICTURES);
+    }
+
+    public MediaStoreStorage(@NonNull Uri collection, @NonNull String relativePath) {
+        this.collection = collection;
+        this.relativePath = relativePath;
+    }
+
+    public Uri getCollection() {
+        return collection;
+    }
+
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    @NonNull
+    @Override
+    public String getKey() {
+        return collection + "/" + relativePath;
+    }
+
+    @NonNull
+    @Override
+    public Uri store(@NonNull Context context, @NonNull String title, @NonNull Bitmap bitmap, int quality) throws IOException {
+        return store(context, title, stream -> {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, stream)) {
+                throw new IOException("Failed to save bitmap.");
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    public Uri store(@NonNull Context context, @NonNull String title, @NonNull ImageHelper.Compression compression) throws IOException {
+        return store(context, title, compression::writeTo);
+    }
+
+    @NonNull
+    private Uri store(Context context, String title, Writer writer) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ContentResolver resolver = context.getContentResolver();
+            Uri uri = createPending(context, title);
+            boolean stored = false;
+
+            try {
+                try (OutputStream stream = resolver.openOutputStream(uri)) {
+                    if (stream == null) {
+                        throw new IOException("Failed to get output stream.");
+                    }
+
+                    writer.write(stream);
+                }
+
+                publish(context, uri);
+                stored = true;
+            } finally {
+                // any failure (writer runtime exceptions included) must not leave a pending record behind
+                if (!stored) {
+                    try {
+                        resolver.delete(uri, null, null);
+                    } catch (Exception ignore) {}
+                }
+            }
+
+            return uri;
+        }
+
+        return storeLegacy(context, title, writer);
+    }
+
+    /**
+     * Write the file at relativePath under the external storage root and insert its record, so the collection
+     * lists it like on Q+.
+     */
+    @NonNull
+    @SuppressWarnings("deprecation")
+    private Uri storeLegacy(Context context, String title, Writer writer) throws IOException {
+        File directory = new File(Environment.getExternalStorageDirectory(), relativePath);
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create public pictures dir.");
+        }
+
+        File image = new File(directory, title + ".jpg");
+        Uri uri = null;
+
+        try {
+            try (OutputStream stream = new FileOutputStream(image)) {
+                writer.write(stream);
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.Images.Media.DISPLAY_NAME, image.getName());
+            values.put(MediaStore.Images.Media.TITLE, title);
+            values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+            values.put(MediaStore.Images.Media.DATA, image.getAbsolutePath());
+            values.put(MediaStore.Images.Media.DATE_ADDED, System.currentTimeMillis() / 1000);
+
+            uri = context.getContentResolver().insert(collection, values);
+
+            if (uri == null) {
+                throw new IOException("Failed to create new MediaStore record.");
+            }
+
+            return uri;
+        } finally {
+            if (uri == null && image.exists() && !image.delete()) {
+                Log.e(MediaStoreStorage.class.getSimpleName(), "Cannot delete " + image);
+            }
+        }
+    }
+
+    /**
+     * Insert a pending (hidden) record to be written.
+     */
+    @NonNull
+    @RequiresApi(Build.VERSION_CODES.Q)
+    Uri createPending(Context context, String title) throws IOException {
+        Uri uri = context.getContentResolver().insert(collection, getPendingValues(title));
+
+        if (uri == null) {
+            throw new IOException("Failed to create new MediaStore record.");
+        }
+
+        return uri;
+    }
+
+    /**
+     * Publish a written record, otherwise it stays hidden from other apps.
+     */
+    @RequiresApi(Build.VERSION_CODES.Q)
+    void publish(Context context, Uri uri) {
+        ContentValues published = new ContentValues();
+        published.put(MediaStore.Images.Media.IS_PENDING, 0);
+        context.getContentResolver().update(uri, published, null, null);
+    }
+
+    @RequiresApi(Build.VERSION_CODES.Q)
+    ContentValues getPendingValues(String title) {
+        ContentValues values = new ContentValues();
+
+        values.put(MediaStore.Images.Media.DISPLAY_NAME, title);
+        values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+        values.put(MediaStore.Images.Media.RELATIVE_PATH, relativePath);
+        values.put(MediaStore.Images.Media.IS_PENDING, 1);
+
+        return values;
+    }
+}
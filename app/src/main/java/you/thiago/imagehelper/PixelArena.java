@@ -0,0 +1,288 @@
+package you.thiago.imagehelper;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Thread local scratch memory of the image pipeline.
+ *
+ * Pixels (copyPixelsToBuffer/copyPixelsFromBuffer staging) and compression output live in direct buffers,
+ * outside of the Java heap, and are reused by every request running on the same thread. The decode temp
+ * storage, the transfer chunk and the kernel bands ({@link #BAND_PIXELS}, whatever the image size) are heap
+ * arrays, also reused. Buffers that grew over
+ * {@link #MAX_RETAINED_BYTES} are dropped on {@link #release()}, so a single huge image does not pin
+ * memory on a pool thread forever. {@link #trimAll()} (memory pressure) drops what every thread retains, each
+ * arena lets go of its buffers the next time its thread gets it.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PixelArena {
+
+    private static final int DECODE_STORAGE_SIZE = 16 * 1024;
+
+    /* multiple of 57 bytes, a full Base64.DEFAULT line (76 chars) */
+    static final int TRANSFER_SIZE = 57 * 144;
+
+    /* pixels the kernels stream through at once (4 MB per band), see ImageHelper#rotateStriped */
+    static final int BAND_PIXELS = 1024 * 1024;
+
+    private static final int INITIAL_OUTPUT_SIZE = 256 * 1024;
+    private static final int MAX_RETAINED_BYTES = 8 * 1024 * 1024;
+
+    /* bumped by trimAll, arenas of an older generation drop their buffers */
+    private static volatile int generation;
+
+    private static final ThreadLocal<PixelArena> arenas = new ThreadLocal<PixelArena>() {
+        @Override
+        protected PixelArena initialValue() {
+            return new PixelArena();
+        }
+    };
+
+    private final byte[] decodeStorage = new byte[DECODE_STORAGE_SIZE];
+    private final byte[] transfer = new byte[TRANSFER_SIZE];
+
+    private final Output output = new Output();
+    private final Output spareOutput = new Output();
+
+    private ByteBuffer pixels;
+
+    private int[] band;
+    private int[] targetBand;
+
+    private int arenaGeneration = generation;
+
+    private PixelArena() {}
+
+    public static PixelArena get() {
+        PixelArena arena = arenas.get();
+
+        if (arena.arenaGeneration != generation) {
+            arena.arenaGeneration = generation;
+            arena.clear();
+        }
+
+        return arena;
+    }
+
+    /**
+     * Drop the retained buffers of every thread (lazily, on their next {@link #get()}).
+     */
+    public static void trimAll() {
+        generation++;
+    }
+
+    /**
+     * Buffer for BitmapFactory.Options#inTempStorage.
+     */
+    public byte[] getDecodeStorage() {
+        return decodeStorage;
+    }
+
+    /**
+     * Heap chunk used to move bytes out of direct buffers (streams, Base64).
+     */
+    public byte[] getTransfer() {
+        return transfer;
+    }
+
+    /**
+     * Compression output, reset and ready to be written.
+     */
+    public Output getOutput() {
+        output.reset();
+        return output;
+    }
+
+    /**
+     * Second compression output (e.g. to keep the best attempt while trying another), reset.
+     */
+    public Output getSpareOutput() {
+        spareOutput.reset();
+        return spareOutput;
+    }
+
+    /**
+     * Direct buffer (native order) with room for the given bytes, cleared and limited to them.
+     */
+    public ByteBuffer getPixels(int bytes) {
+        if (pixels == null || pixels.capacity() < bytes) {
+            pixels = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+
+        pixels.clear();
+        pixels.limit(bytes);
+
+        return pixels;
+    }
+
+    /**
+     * Heap rows read with Bitmap#getPixels, at least the given pixels long.
+     */
+    public int[] getBand(int pixels) {
+        if (band == null || band.length < pixels) {
+            band = new int[pixels];
+        }
+
+        return band;
+    }
+
+    /**
+     * Second band, kernel output written back with Bitmap#setPixels.
+     */
+    public int[] getTargetBand(int pixels) {
+        if (targetBand == null || targetBand.length < pixels) {
+            targetBand = new int[pixels];
+        }
+
+        return targetBand;
+    }
+
+    /**
+     * Copy bitmap pixels into the arena, buffer is returned ready to be read.
+     */
+    public ByteBuffer copyPixels(@NonNull Bitmap bitmap) {
+        ByteBuffer buffer = getPixels(bitmap.getByteCount());
+
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.rewind();
+
+        return buffer;
+    }
+
+    /**
+     * New bitmap with the pixels staged on buffer (from its position).
+     */
+    public static Bitmap toBitmap(@NonNull ByteBuffer buffer, int width, int height, @NonNull Bitmap.Config config, boolean hasAlpha) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, config);
+
+        bitmap.copyPixelsFromBuffer(buffer);
+        bitmap.setHasAlpha(hasAlpha);
+
+        return bitmap;
+    }
+
+    /**
+     * Drop buffers that grew too much, call after processing a request.
+     */
+    public void release() {
+        if (pixels != null && pixels.capacity() > MAX_RETAINED_BYTES) {
+            pixels = null;
+        }
+        if (band != null && band.length > MAX_RETAINED_BYTES / 4) {
+            band = null;
+        }
+        if (targetBand != null && targetBand.length > MAX_RETAINED_BYTES / 4) {
+            targetBand = null;
+        }
+
+        output.trim();
+        spareOutput.trim();
+    }
+
+    /**
+     * Callers keep their own references to the arrays and buffers they got, dropping them here is safe while in
+     * use. Outputs may be written by an outer call, they drop their buffer on their next reset instead.
+     */
+    private void clear() {
+        pixels = null;
+        band = null;
+        targetBand = null;
+
+        output.trimmed = true;
+        spareOutput.trimmed = true;
+    }
+
+    /**
+     * OutputStream over a growable direct buffer.
+     */
+    public static class Output extends OutputStream {
+
+        private ByteBuffer buffer;
+
+        /* drop the buffer instead of clearing it on the next reset */
+        private boolean trimmed;
+
+        Output() {}
+
+        @Override
+        public void write(int value) {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        @Override
+        public void write(@NonNull byte[] data, int offset, int length) {
+            ensure(length);
+            buffer.put(data, offset, length);
+        }
+
+        public int size() {
+            return buffer != null ? buffer.position() : 0;
+        }
+
+        public void reset() {
+            if (trimmed) {
+                trimmed = false;
+                buffer = null;
+            } else if (buffer != null) {
+                buffer.clear();
+            }
+        }
+
+        /**
+         * Read only view of the written bytes.
+         */
+        public ByteBuffer data() {
+            if (buffer == null) {
+                return ByteBuffer.allocate(0);
+            }
+
+            ByteBuffer data = buffer.duplicate();
+            data.flip();
+
+            return data.asReadOnlyBuffer();
+        }
+
+        /**
+         * Owned (direct) copy of the written bytes, that outlives the arena reuse.
+         */
+        public ByteBuffer copy() {
+            ByteBuffer copy = ByteBuffer.allocateDirect(size());
+
+            copy.put(data());
+            copy.flip();
+
+            return copy;
+        }
+
+        public void writeTo(@NonNull OutputStream out) throws IOException {
+            ImageHelper.write(data(), out);
+        }
+
+        private void ensure(int length) {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(Math.max(INITIAL_OUTPUT_SIZE, length));
+            } else if (buffer.remaining() < length) {
+                int capacity = Math.max(buffer.capacity() * 2, buffer.position() + length);
+                ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+
+                buffer.flip();
+                grown.put(buffer);
+
+                buffer = grown;
+            }
+        }
+
+        private void trim() {
+            if (buffer != null && buffer.capacity() > MAX_RETAINED_BYTES) {
+                buffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package you.thiago.imagehelper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Video frame extraction on top of a single MediaMetadataRetriever.
+ *
+ * The retriever is opened once per source and reused for any number of frames (filmstrips).
+ * On API 27+ frames are decoded straight to the target size with getScaledFrameAtTime, older
+ * versions decode the full frame and scale it down. Frames are kept in {@link ImageCache}, keyed by the source
+ * size and mtime (uris without a file descriptor to stat are not cached).
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class VideoThumbnails implements Closeable {
+
+    /* let the retriever pick a representative frame */
+    public static final long DEFAULT_FRAME = -1;
+
+    private static final int MAX_WORKERS = 4;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private static ExecutorService executor;
+
+    private final MediaMetadataRetriever retriever;
+
+    /* size/mtime key of the source, null to not cache its frames */
+    @Nullable
+    private final String source;
+
+    private VideoThumbnails(MediaMetadataRetriever retriever, @Nullable String source) {
+        this.retriever = retriever;
+        this.source = source;
+    }
+
+    public static VideoThumbnails open(@NonNull String file) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+
+        try {
+            retriever.setDataSource(file);
+        } catch (RuntimeException e) {
+            release(retriever);
+            throw e;
+        }
+
+        return new VideoThumbnails(retriever, getSourceKey(file));
+    }
+
+    public static VideoThumbnails open(@NonNull Context context, @NonNull Uri uri) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+
+        try {
+            retriever.setDataSource(context, uri);
+        } catch (RuntimeException e) {
+            release(retriever);
+            throw e;
+        }
+
+        return new VideoThumbnails(retriever, ImageProbe.getSourceKey(context, uri));
+    }
+
+    /**
+     * Single thumbnail of the default frame, cached.
+     */
+    @Nullable
+    public static Bitmap getThumbnail(@NonNull String file, int maxWidth, int maxHeight) {
+        String key = getCacheKey(getSourceKey(file), DEFAULT_FRAME, maxWidth, maxHeight);
+        Bitmap bitmap = ImageCache.get(key);
+
+        if (bitmap == null) {
+            try (VideoThumbnails thumbnails = VideoThumbnails.open(file)) {
+                bitmap = thumbnails.getFrameAtTime(DEFAULT_FRAME, maxWidth, maxHeight);
+            } catch (RuntimeException e) {
+                Log.e(VideoThumbnails.class.getSimpleName(), e.getMessage(), e);
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Thumbnails of many files, extracted on a bounded pool (cached frames are not extracted again). Failed files
+     * have a null entry.
+     */
+    public static List<Bitmap> getThumbnails(@NonNull List<String> files, long timeUs, int maxWidth, int maxHeight) {
+        List<Future<Bitmap>> futures = new ArrayList<>(files.size());
+        List<Bitmap> thumbnails = new ArrayList<>(files.size());
+
+        for (String file : files) {
+            Bitmap cached = ImageCache.get(getCacheKey(getSourceKey(file), timeUs, maxWidth, maxHeight));
+
+            thumbnails.add(cached);
+            futures.add(cached != null ? null : getExecutor().submit(() -> {
+                try (VideoThumbnails video = VideoThumbnails.open(file)) {
+                    return video.getFrameAtTime(timeUs, maxWidth, maxHeight);
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            Future<Bitmap> future = futures.get(i);
+
+            if (future == null) {
+                continue;
+            }
+
+            try {
+                thumbnails.set(i, future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                Log.e(VideoThumbnails.class.getSimpleName(), e.getMessage(), e);
+            }
+        }
+
+        return thumbnails;
+    }
+
+    public long getDurationUs() {
+        String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+
+        try {
+            return duration != null ? Long.parseLong(duration) * 1000 : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Frame closest to timeUs (or the default frame with {@link #DEFAULT_FRAME}) that fits into maxWidth/maxHeight.
+     */
+    @Nullable
+    public Bitmap getFrameAtTime(long timeUs, int maxWidth, int maxHeight) {
+        String key = source != null ? getCacheKey(source, timeUs, maxWidth, maxHeight) : null;
+        Bitmap bitmap = key != null ? ImageCache.get(key) : null;
+
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            bitmap = retriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, maxWidth, maxHeight);
+        } else {
+            bitmap = ImageHelper.scaleDown(retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC), maxWidth, maxHeight);
+        }
+
+        if (key != null) {
+            ImageCache.put(key, bitmap);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Frame by index (no seeking by sync frame), scaled to fit into maxWidth/maxHeight.
+     */
+    @Nullable
+    @RequiresApi(Build.VERSION_CODES.P)
+    public Bitmap getFrameAtIndex(int index, int maxWidth, int maxHeight) {
+        String key = source != null ? getCacheKey(source, -2 - index, maxWidth, maxHeight) : null;
+        Bitmap bitmap = key != null ? ImageCache.get(key) : null;
+
+        if (bitmap == null) {
+            bitmap = ImageHelper.scaleDown(retriever.getFrameAtIndex(index), maxWidth, maxHeight);
+
+            if (key != null) {
+                ImageCache.put(key, bitmap);
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Frames at each timestamp, reusing the opened retriever.
+     */
+    public List<Bitmap> getFilmstrip(@NonNull long[] timesUs, int maxWidth, int maxHeight) {
+        List<Bitmap> frames = new ArrayList<>(timesUs.length);
+
+        for (long timeUs : timesUs) {
+            frames.add(getFrameAtTime(timeUs, maxWidth, maxHeight));
+        }
+
+        return frames;
+    }
+
+    /**
+     * Frames evenly spaced over the whole duration.
+     */
+    public List<Bitmap> getFilmstrip(int count, int maxWidth, int maxHeight) {
+        long duration = getDurationUs();
+        long[] timesUs = new long[Math.max(count, 0)];
+
+        for (int i = 0; i < timesUs.length; i++) {
+            timesUs[i] = duration * i / Math.max(timesUs.length, 1);
+        }
+
+        return getFilmstrip(timesUs, maxWidth, maxHeight);
+    }
+
+    @Override
+    public void close() {
+        release(retriever);
+    }
+
+    private static String getSourceKey(String file) {
+        File source = new File(file);
+        return file + "#" + source.length() + "#" + source.lastModified();
+    }
+
+    private static String getCacheKey(String source, long timeUs, int width, int height) {
+        return "video:" + source + "@" + timeUs + ":" + width + "x" + height;
+    }
+
+    private static void release(MediaMetadataRetriever retriever) {
+        try {
+            retriever.release();
+        } catch (Exception ignore) {}
+    }
+
+    /**
+     * Daemon workers that time out when idle, the pool never has to be shut down.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()));
+            AtomicInteger count = new AtomicInteger();
+
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "VideoThumbnails-" + count.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            });
+            pool.allowCoreThreadTimeOut(true);
+
+            executor = pool;
+        }
+
+        return executor;
+    }
+}
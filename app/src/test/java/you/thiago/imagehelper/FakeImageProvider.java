@@ -0,0 +1,267 @@
+package you.thiago.imagehelper;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for a remote image provider and for MediaStore, registered with Robolectric#setupContentProvider.
+ *
+ * Fixtures ({@link #addFixture}) are served from content://authority/fixtures/name. Records inserted into
+ * {@link #getCollection()} are backed by files, so {@link MediaStoreStorage} can write into it. Each open
+ * waits the configured latency and fails with the configured probability (seeded, so runs are repeatable).
+ */
+public class FakeImageProvider extends ContentProvider {
+
+    public static final String AUTHORITY = "you.thiago.imagehelper.fake";
+
+    private static final String FIXTURES = "fixtures";
+    private static final String IMAGES = "images";
+
+    private final Map<String, File> fixtures = new ConcurrentHashMap<>();
+    private final Map<Long, ContentValues> records = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    private File directory;
+
+    private volatile long latencyMs;
+    private volatile double readFailureRate;
+    private volatile double writeFailureRate;
+
+    private Random random = new Random(42);
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    public static Uri getCollection() {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY).appendPath(IMAGES).build();
+    }
+
+    public static Uri getFixtureUri(@NonNull String name) {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY).appendPath(FIXTURES).appendPath(name).build();
+    }
+
+    public FakeImageProvider setDirectory(@NonNull File directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    public Uri addFixture(@NonNull String name, @NonNull File file) {
+        fixtures.put(name, file);
+        return getFixtureUri(name);
+    }
+
+    public FakeImageProvider setLatency(long latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    public FakeImageProvider setFailureRate(double readFailureRate, double writeFailureRate) {
+        this.readFailureRate = readFailureRate;
+        this.writeFailureRate = writeFailureRate;
+        return this;
+    }
+
+    public FakeImageProvider setSeed(long seed) {
+        synchronized (this) {
+            random = new Random(seed);
+        }
+        return this;
+    }
+
+    public int getRecordCount() {
+        return records.size();
+    }
+
+    /**
+     * Records inserted but never published (IS_PENDING still 1).
+     */
+    public int getPendingCount() {
+        int pending = 0;
+
+        for (ContentValues values : records.values()) {
+            Integer flag = values.getAsInteger(MediaStore.Images.Media.IS_PENDING);
+
+            if (flag != null && flag != 0) {
+                pending++;
+            }
+        }
+
+        return pending;
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        boolean write = mode.contains("w");
+
+        delay();
+        failMaybe(write ? writeFailureRate : readFailureRate, uri);
+
+        File file = getFile(uri);
+
+        if (write) {
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_WRITE | ParcelFileDescriptor.MODE_CREATE
+                    | (mode.contains("t") ? ParcelFileDescriptor.MODE_TRUNCATE : 0));
+        }
+
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        if (!IMAGES.equals(uri.getLastPathSegment())) {
+            return null;
+        }
+
+        delay();
+
+        long id = nextId.getAndIncrement();
+        records.put(id, values != null ? new ContentValues(values) : new ContentValues());
+
+        return ContentUris.withAppendedId(getCollection(), id);
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        ContentValues record = getRecord(uri);
+
+        if (record == null || values == null) {
+            return 0;
+        }
+
+        delay();
+
+        synchronized (record) {
+            record.putAll(values);
+        }
+
+        return 1;
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        Long id = getId(uri);
+
+        if (id == null || records.remove(id) == null) {
+            return 0;
+        }
+
+        File file = new File(directory, String.valueOf(id));
+
+        if (file.exists() && !file.delete()) {
+            throw new IllegalStateException("Cannot delete " + file);
+        }
+
+        return 1;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        Long id = getId(uri);
+        MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, MediaStore.Images.Media.IS_PENDING });
+
+        if (id != null) {
+            ContentValues record = records.get(id);
+
+            if (record != null) {
+                cursor.addRow(new Object[] { id, record.getAsInteger(MediaStore.Images.Media.IS_PENDING) });
+            }
+        } else if (uri.getPathSegments().size() == 2 && FIXTURES.equals(uri.getPathSegments().get(0)) && fixtures.containsKey(uri.getLastPathSegment())) {
+            cursor.addRow(new Object[] { 0, 0 });
+        }
+
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return "image/jpeg";
+    }
+
+    protected void delay() {
+        long latency = latencyMs;
+
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected void failMaybe(double rate, Uri uri) throws FileNotFoundException {
+        if (rate <= 0) {
+            return;
+        }
+
+        double value;
+
+        synchronized (this) {
+            value = random.nextDouble();
+        }
+
+        if (value < rate) {
+            throw new FileNotFoundException("Injected failure: " + uri);
+        }
+    }
+
+    protected File getFile(Uri uri) throws FileNotFoundException {
+        if (uri.getPathSegments().size() == 2 && FIXTURES.equals(uri.getPathSegments().get(0))) {
+            File file = fixtures.get(uri.getLastPathSegment());
+
+            if (file != null) {
+                return file;
+            }
+        } else {
+            Long id = getId(uri);
+
+            if (id != null && records.containsKey(id)) {
+                return new File(directory, String.valueOf(id));
+            }
+        }
+
+        throw new FileNotFoundException("No such image: " + uri);
+    }
+
+    @Nullable
+    private ContentValues getRecord(Uri uri) {
+        Long id = getId(uri);
+        return id != null ? records.get(id) : null;
+    }
+
+    @Nullable
+    private static Long getId(Uri uri) {
+        if (uri.getPathSegments().size() != 2 || !IMAGES.equals(uri.getPathSegments().get(0))) {
+            return null;
+        }
+
+        try {
+            return ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package you.thiago.imagehelper;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.util.Base64;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import you.thiago.imagehelper.core.Orientation;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ImageHelper#writeBase64(android.content.Context, File, int, int, int, OutputStream)} pass-through and
+ * orientation handling.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+@Config(sdk = 33)
+public class ImageHelperBase64Test {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Application application;
+
+    @Before
+    public void setUp() {
+        application = RuntimeEnvironment.getApplication();
+
+        ImageProbe.clearCache();
+    }
+
+    @Test
+    public void writeBase64_upright_passesThrough() throws IOException {
+        File file = createFixture(Orientation.NORMAL);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertTrue(ImageHelper.writeBase64(application, file, WIDTH, HEIGHT, 80, out));
+        assertEquals(Color.RED, dominant(decode(out).getPixel(WIDTH / 2, 0)));
+    }
+
+    /**
+     * A mirrored orientation has no rotation, but would lose its tag with APP1: the file is decoded and flipped.
+     */
+    @Test
+    public void writeBase64_flipVertical_isDecodedUpright() throws IOException {
+        File file = createFixture(Orientation.FLIP_VERTICAL);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertFalse(ImageHelper.writeBase64(application, file, WIDTH, HEIGHT, 100, out));
+
+        Bitmap bitmap = decode(out);
+
+        assertEquals(WIDTH, bitmap.getWidth());
+        assertEquals(HEIGHT, bitmap.getHeight());
+        assertEquals(Color.BLUE, dominant(bitmap.getPixel(WIDTH / 2, 0)));
+        assertEquals(Color.RED, dominant(bitmap.getPixel(WIDTH / 2, HEIGHT - 1)));
+    }
+
+    private static Bitmap decode(ByteArrayOutputStream out) {
+        byte[] jpeg = Base64.decode(out.toByteArray(), Base64.DEFAULT);
+        Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+
+        assertNotNull(bitmap);
+
+        return bitmap;
+    }
+
+    /**
+     * Red or blue, whichever channel the (JPEG approximated) pixel is closest to.
+     */
+    private static int dominant(int pixel) {
+        return Color.red(pixel) > Color.blue(pixel) ? Color.RED : Color.BLUE;
+    }
+
+    /**
+     * JPEG stored with a red top half and a blue bottom half, tagged with orientation.
+     */
+    private File createFixture(int orientation) throws IOException {
+        File file = folder.newFile("fixture-" + orientation + ".jpg");
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                bitmap.setPixel(x, y, y < HEIGHT / 2 ? Color.RED : Color.BLUE);
+            }
+        }
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            assertTrue(bitmap.compress(Bitmap.CompressFormat.JPEG, 100, out));
+        } finally {
+            bitmap.recycle();
+        }
+
+        ExifInterface exif = new ExifInterface(file);
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(orientation));
+        exif.saveAttributes();
+
+        return file;
+    }
+}
@@ -0,0 +1,157 @@
+package you.thiago.imagehelper;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+import you.thiago.imagehelper.core.ParallelKernels;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Android bound paths of ImageHelper (compress, scale, rotate, decode) on synthetic bitmaps,
+ * using Robolectric native graphics. Run with: ./gradlew :app:testDebugUnitTest -Pbenchmark
+ *
+ * Results are written to build/reports/benchmark/robolectric.json.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+@Config(sdk = 33)
+public class ImageHelperBenchmarkTest {
+
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int ITERATIONS = 5;
+
+    private static final int MAX_BYTES = 100 * 1024;
+
+    private final List<String> results = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        assumeTrue("Benchmarks disabled, run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        for (String value : System.getProperty("benchmark.megapixels", "1,4,12").split(",")) {
+            int megapixels = Integer.parseInt(value.trim());
+            Bitmap bitmap = createBitmap(megapixels);
+
+            // Matrix (single threaded) path against the striped kernels
+            ImageHelper.setParallelMinPixels(Integer.MAX_VALUE);
+            measure("scaleDown", megapixels, () -> ImageHelper.scaleDown(bitmap, ImageComponent.DEFAULT_IMG_MAX_WIDTH, ImageComponent.DEFAULT_IMG_MAX_HEIGHT));
+            measure("rotateImage", megapixels, () -> ImageHelper.rotateImage(bitmap, 90));
+
+            ImageHelper.setParallelMinPixels(0);
+            measure("scaleDownStriped", megapixels, () -> ImageHelper.scaleDown(bitmap, ImageComponent.DEFAULT_IMG_MAX_WIDTH, ImageComponent.DEFAULT_IMG_MAX_HEIGHT));
+            measure("rotateImageStriped", megapixels, () -> ImageHelper.rotateImage(bitmap, 90));
+
+            ImageHelper.setParallelMinPixels(ParallelKernels.DEFAULT_MIN_PIXELS);
+            measure("toBase64", megapixels, () -> ImageHelper.toBase64(bitmap, ImageComponent.DEFAULT_IMG_MAX_WIDTH, ImageComponent.DEFAULT_IMG_MAX_HEIGHT, ImageComponent.DEFAULT_IMG_QUALITY));
+            measure("toBase64MaxBytes", megapixels, () -> ImageHelper.toBase64(bitmap, ImageComponent.DEFAULT_IMG_MAX_WIDTH, ImageComponent.DEFAULT_IMG_MAX_HEIGHT, ImageComponent.DEFAULT_IMG_QUALITY, MAX_BYTES));
+
+            String base64 = ImageHelper.toBase64(bitmap, ImageComponent.DEFAULT_IMG_MAX_WIDTH, ImageComponent.DEFAULT_IMG_MAX_HEIGHT, ImageComponent.DEFAULT_IMG_QUALITY);
+            measure("toBitmap", megapixels, () -> ImageHelper.toBitmap(base64));
+
+            bitmap.recycle();
+        }
+
+        writeResults();
+    }
+
+    private void measure(String name, int megapixels, Callable<Object> task) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            assertNotNull(task.call());
+        }
+
+        long[] times = new long[ITERATIONS];
+        long allocated = getAllocatedBytes();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            Object result = task.call();
+            times[i] = System.nanoTime() - start;
+
+            assertNotNull(result);
+        }
+
+        allocated = getAllocatedBytes() - allocated;
+
+        long total = 0;
+        long min = Long.MAX_VALUE;
+
+        for (long time : times) {
+            total += time;
+            min = Math.min(min, time);
+        }
+
+        double averageMs = total / (double) ITERATIONS / 1_000_000d;
+
+        results.add(String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"megapixels\":%d,\"iterations\":%d,\"avgMs\":%.3f,\"minMs\":%.3f,\"opsPerSecond\":%.3f,\"allocatedBytesPerOp\":%d}",
+                name, megapixels, ITERATIONS, averageMs, min / 1_000_000d, 1000d / averageMs, allocated / ITERATIONS));
+    }
+
+    private void writeResults() throws IOException {
+        File directory = new File(System.getProperty("benchmark.output", "build/reports/benchmark"));
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create benchmark output dir.");
+        }
+
+        try (Writer writer = new FileWriter(new File(directory, "robolectric.json"))) {
+            writer.write("[\n  " + String.join(",\n  ", results) + "\n]\n");
+        }
+    }
+
+    /**
+     * 4:3 bitmap with a gradient, so JPEG compression has real work to do.
+     */
+    private static Bitmap createBitmap(int megapixels) {
+        int width = (int) Math.sqrt(megapixels * 1_000_000d * 4 / 3);
+        int height = width * 3 / 4;
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        int[] row = new int[width];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = 0xFF000000 | ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | ((x ^ y) & 0xFF);
+            }
+
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+
+        // opaque like a decoded photo, the pixel kernels skip bitmaps with alpha
+        bitmap.setHasAlpha(false);
+
+        return bitmap;
+    }
+
+    /**
+     * Bytes allocated on the heap by the current thread (HotSpot only, -1 elsewhere).
+     */
+    private static long getAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,299 @@
+package you.thiago.imagehelper;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Opens and bytes read by each public read path against {@link SlowImageProvider}, asserted against the counts
+ * recorded in io-budget.json (test resources) so a change that reads the source one more time (or reads it whole
+ * to get a header) fails here. Run with: ./gradlew :app:testDebugUnitTest -Pio
+ *
+ * Budgets are measured, not written by hand: add -Pio.updateBudget to record the current counts (nothing is compared
+ * then), a call without a recorded budget fails. Results are written to build/reports/benchmark/io-{access}.json. The provider
+ * is fast by default, pass -Pio.latencyMs and -Pio.bytesPerSecond to also look at the time it takes over slow storage.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+@Config(sdk = 33)
+public class ImageIoAmplificationTest {
+
+    private static final String FIXTURE = "io.jpg";
+    private static final String BUDGET = "io-budget.json";
+
+    /* pipe buffer plus one writer chunk per open: how much a header read may vary with the writer timing */
+    private static final long SLACK_BYTES = 128 * 1024;
+
+    private static final int FIXTURE_WIDTH = 1600;
+    private static final int FIXTURE_HEIGHT = 1200;
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int QUALITY = 80;
+
+    private static final int THUMB_SIZE = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Application application;
+    private SlowImageProvider provider;
+    private MediaStoreStorage storage;
+
+    private Uri source;
+    private long size;
+
+    private final List<String> results = new ArrayList<>();
+    private final JSONObject measured = new JSONObject();
+
+    private JSONObject budget;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("I/O budget test disabled, run with -Pio", Boolean.getBoolean("io"));
+
+        budget = readBudget();
+        application = RuntimeEnvironment.getApplication();
+
+        provider = Robolectric.setupContentProvider(SlowImageProvider.class, FakeImageProvider.AUTHORITY);
+        provider.setDirectory(folder.newFolder("records"));
+        provider.setLatency(Long.getLong("io.latencyMs", 0));
+        provider.setBytesPerSecond(Long.getLong("io.bytesPerSecond", 0));
+
+        storage = new MediaStoreStorage(FakeImageProvider.getCollection(), "Pictures/io");
+
+        File fixture = createFixture(folder.newFile(FIXTURE));
+
+        source = provider.addFixture(FIXTURE, fixture);
+        size = fixture.length();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (provider == null) {
+            return;
+        }
+
+        writeResults();
+
+        if (Boolean.getBoolean("io.updateBudget")) {
+            updateBudget();
+        }
+    }
+
+    @Test
+    public void file() throws Exception {
+        provider.setAccess(SlowImageProvider.Access.FILE);
+
+        measureAll();
+    }
+
+    @Test
+    public void pipe() throws Exception {
+        provider.setAccess(SlowImageProvider.Access.PIPE);
+
+        measureAll();
+    }
+
+    /**
+     * Every probe first tries a file descriptor (one open wasted) and then falls back to a stream.
+     */
+    @Test
+    public void asset() throws Exception {
+        provider.setAccess(SlowImageProvider.Access.ASSET);
+
+        measureAll();
+    }
+
+    private void measureAll() throws Exception {
+        SlowImageProvider.Access access = provider.getAccess();
+
+        // probe + decode
+        measure("ImageHelper.resizeImage", () -> ImageHelper.resizeImage(application, source, WIDTH, HEIGHT, QUALITY).bitmap);
+        measure("ImageComponent.createResizedBitmap", () -> ImageComponent.createResizedBitmap(application, source));
+        measure("ImageHandler.createResizedBitmap", () -> {
+            ImageHandler handler = ImageHandler.with(application);
+            handler.setStorage(storage);
+
+            return handler.createResizedBitmap(source, WIDTH, HEIGHT, QUALITY);
+        });
+
+        // probe, header only
+        measure("ImageHelper.getOrientation", () -> {
+            float orientation = ImageHelper.getOrientation(application, source);
+
+            assertEquals(90f, orientation, 0f);
+
+            return orientation;
+        });
+
+        // whole file descriptor decode + probe, needs a whole file descriptor
+        if (access != SlowImageProvider.Access.ASSET) {
+            measure("ImageHelper.createBitmap", () -> ImageHelper.createBitmap(application, source, ImageNames.next(), WIDTH, HEIGHT, QUALITY, storage).bitmap);
+        }
+
+        // provider thumbnail (on sdk 33 openTypedAssetFile, which this provider answers with the whole JPEG),
+        // or EXIF thumbnail + probe + decode when the provider has none
+        measure("ImageThumbnails.getThumbnail", () -> ImageThumbnails.getThumbnail(application, source, THUMB_SIZE, THUMB_SIZE));
+    }
+
+    /**
+     * Run task once on cold caches and check its opens (and, on pipes, bytes read) against the recorded budget,
+     * bytes read may exceed it by {@link #SLACK_BYTES} per open.
+     */
+    private void measure(String name, Callable<Object> task) throws Exception {
+        ImageProbe.clearCache();
+        ImageCache.clear();
+        provider.resetCounters();
+
+        long start = System.nanoTime();
+        Object result = task.call();
+        long time = System.nanoTime() - start;
+
+        assertTrue(name + ": pipe writers still running", provider.awaitIdle(10, TimeUnit.SECONDS));
+        assertNotNull(name + ": no result", result);
+
+        int opens = provider.getOpenCount();
+        boolean counted = provider.getAccess() == SlowImageProvider.Access.PIPE;
+        long bytes = counted ? provider.getBytesRead() : -1;
+
+        results.add(String.format(Locale.US,
+                "{\"call\":\"%s\",\"access\":\"%s\",\"opens\":%d,\"bytesRead\":%d,\"sourceBytes\":%d,\"readAmplification\":%.3f,\"ms\":%.3f}",
+                name, provider.getAccess(), opens, bytes, size, counted ? bytes / (double) size : -1d, time / 1_000_000d));
+
+        measured.put(name, new JSONObject().put("opens", opens).put("bytesRead", bytes));
+
+        if (Boolean.getBoolean("io.updateBudget")) {
+            return;
+        }
+
+        JSONObject recorded = budget != null ? budget.optJSONObject(getAccessKey()) : null;
+        JSONObject call = recorded != null ? recorded.optJSONObject(name) : null;
+
+        assertNotNull(name + " on " + provider.getAccess() + ": no recorded budget in " + BUDGET + ", record one with -Pio -Pio.updateBudget", call);
+
+        int maxOpens = call.getInt("opens");
+
+        assertTrue(String.format(Locale.US, "%s on %s: %d opens, budget %d", name, provider.getAccess(), opens, maxOpens), opens <= maxOpens);
+
+        if (counted) {
+            long maxBytes = call.getLong("bytesRead") + opens * SLACK_BYTES;
+
+            assertTrue(String.format(Locale.US, "%s: %d bytes read from a %d bytes source, budget %d", name, bytes, size, maxBytes), bytes <= maxBytes);
+        }
+    }
+
+    private void writeResults() throws IOException {
+        File directory = new File(System.getProperty("benchmark.output", "build/reports/benchmark"));
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create benchmark output dir.");
+        }
+
+        try (Writer writer = new FileWriter(new File(directory, "io-" + getAccessKey() + ".json"))) {
+            writer.write("[\n  " + String.join(",\n  ", results) + "\n]\n");
+        }
+    }
+
+    private String getAccessKey() {
+        return provider.getAccess().name().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Recorded budgets by access and call, null when there are none yet.
+     */
+    private JSONObject readBudget() throws Exception {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(BUDGET)) {
+            return in != null ? readJson(in) : null;
+        }
+    }
+
+    /**
+     * Replace the budgets of this access with the measured counts, keeping the other accesses of the file.
+     */
+    private void updateBudget() throws Exception {
+        File file = new File(System.getProperty("io.budget", "src/test/resources/" + BUDGET));
+        JSONObject budgets = new JSONObject();
+
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                budgets = readJson(in);
+            }
+        } else if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Cannot create budget dir.");
+        }
+
+        budgets.put(getAccessKey(), measured);
+
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(budgets.toString(2) + "\n");
+        }
+    }
+
+    private static JSONObject readJson(InputStream in) throws Exception {
+        Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name()).useDelimiter("\\A");
+        return new JSONObject(scanner.hasNext() ? scanner.next() : "{}");
+    }
+
+    /**
+     * JPEG with a gradient and an EXIF orientation (so the probe has something to find), bigger than a pipe buffer.
+     */
+    private static File createFixture(File file) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(FIXTURE_WIDTH, FIXTURE_HEIGHT, Bitmap.Config.ARGB_8888);
+        int[] row = new int[FIXTURE_WIDTH];
+
+        for (int y = 0; y < FIXTURE_HEIGHT; y++) {
+            for (int x = 0; x < FIXTURE_WIDTH; x++) {
+                row[x] = 0xFF000000 | ((x * 255 / FIXTURE_WIDTH) << 16) | ((y * 255 / FIXTURE_HEIGHT) << 8) | ((x ^ y) & 0xFF);
+            }
+
+            bitmap.setPixels(row, 0, FIXTURE_WIDTH, 0, y, FIXTURE_WIDTH, 1);
+        }
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            assertTrue(bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out));
+        } finally {
+            bitmap.recycle();
+        }
+
+        ExifInterface exif = new ExifInterface(file);
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(ExifInterface.ORIENTATION_ROTATE_90));
+        exif.saveAttributes();
+
+        return file;
+    }
+}
@@ -0,0 +1,394 @@
+package you.thiago.imagehelper;
+
+import android.app.Application;
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Environment;
+import android.provider.MediaStore;
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ImageJobs} retries, resume after process death (a new queue over the journal left by the dead one),
+ * recovery sweeps and cancellation.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+@Config(sdk = 33)
+public class ImageJobsTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    private static final byte[] STAGED = "staged jpeg".getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Application application;
+    private ImageJobs jobs;
+
+    @Before
+    public void setUp() {
+        application = RuntimeEnvironment.getApplication();
+        jobs = new ImageJobs(application);
+    }
+
+    @After
+    public void tearDown() {
+        jobs.shutdown();
+    }
+
+    @Test
+    public void getBackoff_doublesUpToCap() {
+        assertEquals(2000, ImageJobs.getBackoff(1));
+        assertEquals(4000, ImageJobs.getBackoff(2));
+        assertEquals(8000, ImageJobs.getBackoff(3));
+        assertEquals(16000, ImageJobs.getBackoff(4));
+        assertEquals(5 * 60 * 1000, ImageJobs.getBackoff(20));
+    }
+
+    @Test
+    public void retry_failedRun_isQueuedAfterBackoff() throws Exception {
+        CountDownLatch retried = new CountDownLatch(1);
+        AtomicLong nextRun = new AtomicLong();
+
+        jobs.addListener(job -> {
+            if (job.state == ImageJobs.State.QUEUED && job.attempts == 1) {
+                nextRun.set(job.nextRun);
+                retried.countDown();
+            }
+        });
+
+        long before = System.currentTimeMillis();
+        long id = jobs.enqueueEncode(Uri.fromFile(new File(folder.getRoot(), "missing.jpg")), 64, 48, 80, 0, new File(folder.getRoot(), "out.b64"));
+
+        assertTrue("job not retried", retried.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(nextRun.get() >= before + ImageJobs.getBackoff(1));
+        assertTrue(nextRun.get() <= System.currentTimeMillis() + ImageJobs.getBackoff(1));
+
+        ImageJobs.Job job = jobs.getJob(id);
+
+        assertNotNull(job);
+        assertEquals(1, job.attempts);
+        assertNotNull(job.error);
+    }
+
+    /**
+     * Died after staging: the stage file is encoded, the (missing) source is not decoded again.
+     */
+    @Test
+    public void recover_staged_resumesFromStageFile() throws Exception {
+        File stageFile = createStageFile("1.jpg");
+        File target = new File(folder.getRoot(), "out.b64");
+
+        ContentValues values = row(ImageJobs.Type.ENCODE, ImageJobs.State.RUNNING, ImageJobs.Stage.STAGED, 0);
+        values.put("stage_file", stageFile.getPath());
+        values.put("target", target.getPath());
+
+        long id = insert(values);
+
+        jobs.recover();
+
+        ImageJobs.Job job = awaitFinished(id);
+
+        assertEquals(ImageJobs.State.DONE, job.state);
+        assertEquals(0, job.attempts);
+        assertEquals(Uri.fromFile(target).toString(), job.output);
+        assertArrayEquals(STAGED, Base64.decode(Files.readAllBytes(target.toPath()), Base64.DEFAULT));
+        assertFalse(stageFile.exists());
+    }
+
+    /**
+     * Died after storing: the job only finishes, the (unusable) storage is not written again.
+     */
+    @Test
+    public void recover_stored_finishesWithoutStoring() throws Exception {
+        File stageFile = createStageFile("1.jpg");
+
+        ContentValues values = row(ImageJobs.Type.RESIZE, ImageJobs.State.RUNNING, ImageJobs.Stage.STORED, 0);
+        values.put("stage_file", stageFile.getPath());
+        values.put("storage", "unknown");
+        values.put("output", "content://stored/1");
+
+        long id = insert(values);
+
+        jobs.recover();
+
+        ImageJobs.Job job = awaitFinished(id);
+
+        assertEquals(ImageJobs.State.DONE, job.state);
+        assertEquals("content://stored/1", job.output);
+        assertFalse(stageFile.exists());
+    }
+
+    @Test
+    public void recover_requeuesRunningRows() {
+        long id = insert(row(ImageJobs.Type.ENCODE, ImageJobs.State.RUNNING, ImageJobs.Stage.NEW, System.currentTimeMillis() + HOUR_MS));
+
+        jobs.recover();
+
+        ImageJobs.Job job = jobs.getJob(id);
+
+        assertNotNull(job);
+        assertEquals(ImageJobs.State.QUEUED, job.state);
+    }
+
+    @Test
+    public void recover_sweepsUnownedStageFiles() throws Exception {
+        File owned = createStageFile("1.jpg");
+        File orphan = createStageFile("2.jpg");
+        File temp = createStageFile("3.jpg.tmp");
+
+        ContentValues values = row(ImageJobs.Type.ENCODE, ImageJobs.State.QUEUED, ImageJobs.Stage.STAGED, System.currentTimeMillis() + HOUR_MS);
+        values.put("stage_file", owned.getPath());
+        insert(values);
+
+        jobs.recover();
+
+        assertTrue(owned.exists());
+        assertFalse(orphan.exists());
+        assertFalse(temp.exists());
+    }
+
+    @Test
+    public void recover_sweepsOldEmptyCaptureFiles() throws Exception {
+        File directory = application.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        assertNotNull(directory);
+
+        long old = System.currentTimeMillis() - 2 * HOUR_MS;
+
+        File orphan = createCaptureFile(directory, ImageNames.PREFIX + "orphan.jpg", 0, old);
+        File recent = createCaptureFile(directory, ImageNames.PREFIX + "recent.jpg", 0, System.currentTimeMillis());
+        File written = createCaptureFile(directory, ImageNames.PREFIX + "written.jpg", 16, old);
+        File owned = createCaptureFile(directory, ImageNames.PREFIX + "owned.jpg", 0, old);
+        File other = createCaptureFile(directory, "other.jpg", 0, old);
+
+        ContentValues values = row(ImageJobs.Type.RESIZE, ImageJobs.State.QUEUED, ImageJobs.Stage.NEW, System.currentTimeMillis() + HOUR_MS);
+        values.put("source", Uri.fromFile(owned).toString());
+        insert(values);
+
+        jobs.recover();
+
+        assertFalse(orphan.exists());
+        assertTrue(recent.exists());
+        assertTrue(written.exists());
+        assertTrue(owned.exists());
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void recover_deletesUnownedPendingRecords() {
+        PendingProvider provider = Robolectric.setupContentProvider(PendingProvider.class, MediaStore.AUTHORITY);
+        Uri collection = MediaStoreStorage.DEFAULT.getCollection();
+
+        provider.pending = new long[] { 1, 2 };
+
+        ContentValues values = row(ImageJobs.Type.RESIZE, ImageJobs.State.QUEUED, ImageJobs.Stage.STAGED, System.currentTimeMillis() + HOUR_MS);
+        values.put("pending_uri", ContentUris.withAppendedId(collection, 1).toString());
+        insert(values);
+
+        jobs.recover();
+
+        assertEquals(1, provider.deleted.size());
+        assertTrue(provider.deleted.contains(ContentUris.withAppendedId(collection, 2).toString()));
+    }
+
+    /**
+     * Cancelled while running: the job stops after its stage and drops the stage file and its record.
+     */
+    @Test
+    public void cancel_running_discardsAfterStage() throws Exception {
+        File target = new File(folder.getRoot(), "out.b64");
+        AtomicReference<String> stageFile = new AtomicReference<>();
+        CountDownLatch staged = new CountDownLatch(1);
+
+        jobs.addListener(job -> {
+            if (job.state == ImageJobs.State.RUNNING && job.stage == ImageJobs.Stage.STAGED) {
+                stageFile.set(job.stageFile);
+                jobs.cancel(job.id);
+                staged.countDown();
+            }
+        });
+
+        long id = jobs.enqueueEncode(Uri.fromFile(createImage()), 64, 48, 80, 0, target);
+
+        assertTrue("job not staged", staged.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        awaitRemoved(id);
+
+        assertNotNull(stageFile.get());
+        assertFalse(new File(stageFile.get()).exists());
+        assertFalse(target.exists());
+    }
+
+    /**
+     * Journal row as the dead process left it (column names of the ImageJobs schema).
+     */
+    private static ContentValues row(ImageJobs.Type type, ImageJobs.State state, ImageJobs.Stage stage, long nextRun) {
+        ContentValues values = new ContentValues();
+
+        values.put("type", type.name());
+        values.put("source", "file:///missing/source.jpg");
+        values.put("title", ImageNames.PREFIX + "job");
+        values.put("width", 64);
+        values.put("height", 48);
+        values.put("quality", 80);
+        values.put("max_bytes", 0);
+        values.put("delete_source", 0);
+        values.put("state", state.name());
+        values.put("stage", stage.name());
+        values.put("attempts", 0);
+        values.put("next_run", nextRun);
+        values.put("created", System.currentTimeMillis());
+
+        return values;
+    }
+
+    private long insert(ContentValues values) {
+        return jobs.getWritableDatabase().insertOrThrow("jobs", null, values);
+    }
+
+    private ImageJobs.Job awaitFinished(long id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while (System.currentTimeMillis() < deadline) {
+            ImageJobs.Job job = jobs.getJob(id);
+
+            if (job != null && job.isFinished()) {
+                return job;
+            }
+
+            Thread.sleep(20);
+        }
+
+        throw new AssertionError("Job " + id + " not finished");
+    }
+
+    private void awaitRemoved(long id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while (jobs.getJob(id) != null) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Job " + id + " not removed");
+            }
+
+            Thread.sleep(20);
+        }
+    }
+
+    private File createStageFile(String name) throws IOException {
+        File directory = new File(application.getCacheDir(), "image_jobs");
+        assertTrue(directory.isDirectory() || directory.mkdirs());
+
+        File file = new File(directory, name);
+        Files.write(file.toPath(), STAGED);
+
+        return file;
+    }
+
+    private static File createCaptureFile(File directory, String name, int length, long lastModified) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), new byte[length]);
+        assertTrue(file.setLastModified(lastModified));
+
+        return file;
+    }
+
+    private File createImage() throws IOException {
+        File file = folder.newFile("source.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(64, 48, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.RED);
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            assertTrue(bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out));
+        } finally {
+            bitmap.recycle();
+        }
+
+        return file;
+    }
+
+    /**
+     * MediaStore listing the given pending records of this app (selection ignored) and recording deletes.
+     */
+    public static class PendingProvider extends ContentProvider {
+
+        volatile long[] pending = new long[0];
+        final Set<String> deleted = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+            MatrixCursor cursor = new MatrixCursor(new String[] { MediaStore.Images.Media._ID });
+
+            for (long id : pending) {
+                cursor.addRow(new Object[] { id });
+            }
+
+            return cursor;
+        }
+
+        @Override
+        public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+            deleted.add(uri.toString());
+            return 1;
+        }
+
+        @Nullable
+        @Override
+        public String getType(@NonNull Uri uri) {
+            return "image/jpeg";
+        }
+
+        @Nullable
+        @Override
+        public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package you.thiago.imagehelper;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Concurrent resize/encode/store load against {@link FakeImageProvider} (injected latency and failures), through
+ * {@link ImageHelper#resizeImage}, {@link ImageHelper#createBitmap} and {@link ImageHandler}.
+ * Run with: ./gradlew :app:testDebugUnitTest -Pstress
+ *
+ * Reports throughput, p50/p99 latency, peak heap and the contexts/bitmaps still reachable after the run to
+ * build/reports/stress/stress.json, and fails when a result is half filled, a pending record is left behind,
+ * something leaks or the numbers regress past the tolerance of stress-baseline.json (test resources).
+ * The baseline is recorded on the reference machine with -Pstress.updateBaseline: without one the run fails,
+ * with another configuration than the recorded one the regression check is skipped (reported as such).
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+@Config(sdk = 33)
+public class ImagePipelineStressTest {
+
+    private static final String BASELINE = "stress-baseline.json";
+
+    /* allowed regression, written to a newly recorded baseline */
+    private static final double DEFAULT_TOLERANCE = 0.5;
+
+    private static final int FIXTURES = 8;
+    private static final int GC_ROUNDS = 10;
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int QUALITY = 80;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Application application;
+    private FakeImageProvider provider;
+    private MediaStoreStorage storage;
+
+    private final List<Uri> sources = new ArrayList<>();
+
+    private int requests;
+    private int threads;
+    private long latencyMs;
+    private double failureRate;
+    private double megapixels;
+
+    private final AtomicInteger stored = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger halfFilled = new AtomicInteger();
+
+    private final List<WeakReference<Context>> contexts = new ArrayList<>();
+    private final List<WeakReference<Bitmap>> bitmaps = new ArrayList<>();
+
+    private enum Operation {
+        RESIZE,
+        ENCODE,
+        STORE,
+        HANDLER
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue("Stress harness disabled, run with -Pstress", Boolean.getBoolean("stress"));
+
+        requests = Integer.getInteger("stress.requests", 2000);
+        threads = Integer.getInteger("stress.threads", 16);
+        latencyMs = Long.getLong("stress.latencyMs", 5);
+        failureRate = Double.parseDouble(System.getProperty("stress.failureRate", "0.05"));
+        megapixels = Double.parseDouble(System.getProperty("stress.megapixels", "1"));
+
+        application = RuntimeEnvironment.getApplication();
+
+        provider = Robolectric.setupContentProvider(FakeImageProvider.class, FakeImageProvider.AUTHORITY)
+                .setDirectory(folder.newFolder("records"))
+                .setLatency(latencyMs)
+                .setFailureRate(failureRate, failureRate);
+
+        storage = new MediaStoreStorage(FakeImageProvider.getCollection(), "Pictures/stress");
+
+        File fixtures = folder.newFolder("fixtures");
+
+        for (int i = 0; i < FIXTURES; i++) {
+            sources.add(provider.addFixture("img_" + i + ".jpg", createFixture(new File(fixtures, "img_" + i + ".jpg"), i)));
+        }
+    }
+
+    @Test
+    public void stress() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> futures = new ArrayList<>(requests);
+
+        MemoryPoolMXBean[] heap = getHeapPools();
+
+        for (MemoryPoolMXBean memory : heap) {
+            memory.resetPeakUsage();
+        }
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < requests; i++) {
+            Uri source = sources.get(i % sources.size());
+            Operation operation = Operation.values()[i % Operation.values().length];
+
+            futures.add(pool.submit(() -> run(operation, source)));
+        }
+
+        long[] latencies = new long[requests];
+
+        for (int i = 0; i < requests; i++) {
+            // exceptions escaping the helpers fail the harness here
+            latencies[i] = futures.get(i).get();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        pool.shutdown();
+
+        long peakHeap = 0;
+
+        for (MemoryPoolMXBean memory : heap) {
+            peakHeap += memory.getPeakUsage().getUsed();
+        }
+
+        ImageCache.clear();
+
+        int leakedContexts = countReachable(contexts);
+        int leakedBitmaps = countReachable(bitmaps);
+
+        Arrays.sort(latencies);
+
+        JSONObject result = new JSONObject()
+                .put("requests", requests)
+                .put("threads", threads)
+                .put("latencyMs", latencyMs)
+                .put("failureRate", failureRate)
+                .put("megapixels", megapixels)
+                .put("throughputPerSecond", requests / (elapsed / 1_000_000_000d))
+                .put("p50Ms", percentile(latencies, 0.50) / 1_000_000d)
+                .put("p99Ms", percentile(latencies, 0.99) / 1_000_000d)
+                .put("peakHeapBytes", peakHeap)
+                .put("stored", stored.get())
+                .put("failed", failed.get())
+                .put("halfFilled", halfFilled.get())
+                .put("leakedContexts", leakedContexts)
+                .put("leakedBitmaps", leakedBitmaps);
+
+        JSONObject baseline = readBaseline();
+        boolean update = Boolean.getBoolean("stress.updateBaseline");
+        String mismatch = baseline != null ? getMismatch(result, baseline) : null;
+
+        // how the run was compared, so the report says why there is no regression check
+        result.put("baseline", update ? "updated" : baseline == null ? "missing" : mismatch != null ? "differs: " + mismatch : "compared");
+
+        writeResult(result);
+
+        assertEquals("Failures not reported (half filled results)", 0, halfFilled.get());
+        assertEquals(requests, stored.get() + failed.get());
+        assertEquals("Requests left in flight", 0, ImageRequests.getInFlightCount());
+        assertEquals("Pending records left behind", 0, provider.getPendingCount());
+        assertEquals("Retained contexts", 0, leakedContexts);
+        assertEquals("Retained bitmaps", 0, leakedBitmaps);
+
+        if (update) {
+            updateBaseline(result, baseline);
+            return;
+        }
+
+        assertNotNull("No recorded " + BASELINE + ", record one on the reference machine with -Pstress -Pstress.updateBaseline", baseline);
+        assumeTrue("Stress configuration differs from the baseline (" + mismatch + "), regression check skipped", mismatch == null);
+
+        assertNoRegression(result, baseline);
+    }
+
+    /**
+     * One request, classified as stored or failed.
+     *
+     * @return latency in nanoseconds
+     */
+    private long run(Operation operation, Uri source) throws Exception {
+        long start = System.nanoTime();
+        Bitmap bitmap = null;
+        boolean success;
+
+        switch (operation) {
+            case RESIZE: {
+                ImageHelper.Image image = ImageHelper.resizeImage(application, source, ImageNames.next(), WIDTH, HEIGHT, QUALITY, 0, storage);
+                bitmap = image.bitmap;
+                success = check(bitmap, image.uri, image.error, source);
+                break;
+            }
+            case ENCODE: {
+                ImageHelper.Image image = ImageHelper.resizeImage(application, source, null, WIDTH, HEIGHT, QUALITY);
+
+                bitmap = image.bitmap;
+                success = image.error == null && bitmap != null && ImageHelper.toBase64(bitmap, WIDTH, HEIGHT, QUALITY) != null;
+
+                if (!success && image.error == null) {
+                    halfFilled.incrementAndGet();
+                }
+                break;
+            }
+            case STORE: {
+                ImageHelper.Image image = ImageHelper.createBitmap(application, source, ImageNames.next(), WIDTH, HEIGHT, QUALITY, storage);
+                bitmap = image.bitmap;
+                success = check(bitmap, image.uri, image.error, source);
+                break;
+            }
+            default: {
+                // short lived handler per request, like one per activity
+                Context activity = new ContextWrapper(application);
+                ImageHandler handler = ImageHandler.with(activity);
+                handler.setStorage(storage);
+
+                bitmap = handler.createResizedBitmap(source, WIDTH, HEIGHT, QUALITY);
+                success = check(bitmap, handler.getImageUri(), null, source);
+
+                synchronized (contexts) {
+                    contexts.add(new WeakReference<>(activity));
+                }
+                break;
+            }
+        }
+
+        if (bitmap != null) {
+            synchronized (bitmaps) {
+                bitmaps.add(new WeakReference<>(bitmap));
+            }
+        }
+
+        (success ? stored : failed).incrementAndGet();
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Success has a bitmap and a new uri, a failure must be visible: an error, no output at all or the uri
+     * falling back to the source. Anything else is a half filled result the caller takes for a success.
+     */
+    private boolean check(Bitmap bitmap, String uri, Exception error, Uri source) {
+        boolean fallback = source.toString().equals(uri);
+
+        if (error == null && bitmap != null && uri != null && !fallback) {
+            return true;
+        }
+
+        if (error == null && !fallback && (bitmap != null || uri != null)) {
+            halfFilled.incrementAndGet();
+        }
+
+        return false;
+    }
+
+    private static <T> int countReachable(List<WeakReference<T>> references) throws InterruptedException {
+        int reachable = 0;
+
+        for (int i = 0; i < GC_ROUNDS; i++) {
+            System.gc();
+            Thread.sleep(50);
+
+            reachable = 0;
+
+            for (WeakReference<T> reference : references) {
+                if (reference.get() != null) {
+                    reachable++;
+                }
+            }
+
+            if (reachable == 0) {
+                break;
+            }
+        }
+
+        return reachable;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static MemoryPoolMXBean[] getHeapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pools.add(pool);
+            }
+        }
+
+        return pools.toArray(new MemoryPoolMXBean[0]);
+    }
+
+    /**
+     * First configuration key the run and the baseline differ on, null when they can be compared.
+     */
+    private static String getMismatch(JSONObject result, JSONObject baseline) throws Exception {
+        for (String key : new String[] { "requests", "threads", "latencyMs", "failureRate", "megapixels" }) {
+            if (result.getDouble(key) != baseline.getDouble(key)) {
+                return key;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Throughput may not drop, and latency/heap may not grow, more than the baseline tolerance.
+     */
+    private static void assertNoRegression(JSONObject result, JSONObject baseline) throws Exception {
+        double tolerance = baseline.getDouble("tolerance");
+
+        assertTrue("Throughput regressed: " + result.getDouble("throughputPerSecond"),
+                result.getDouble("throughputPerSecond") >= baseline.getDouble("throughputPerSecond") * (1 - tolerance));
+
+        for (String key : new String[] { "p50Ms", "p99Ms", "peakHeapBytes" }) {
+            assertTrue(key + " regressed: " + result.getDouble(key), result.getDouble(key) <= baseline.getDouble(key) * (1 + tolerance));
+        }
+    }
+
+    /**
+     * Recorded baseline, null when there is none yet.
+     */
+    private JSONObject readBaseline() throws Exception {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(BASELINE)) {
+            if (in == null) {
+                return null;
+            }
+
+            Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name()).useDelimiter("\\A");
+            return new JSONObject(scanner.hasNext() ? scanner.next() : "{}");
+        }
+    }
+
+    private static void updateBaseline(JSONObject result, JSONObject previous) throws Exception {
+        double tolerance = previous != null ? previous.optDouble("tolerance", DEFAULT_TOLERANCE) : DEFAULT_TOLERANCE;
+        JSONObject baseline = new JSONObject(result.toString()).put("tolerance", tolerance);
+
+        for (String key : new String[] { "stored", "failed", "halfFilled", "leakedContexts", "leakedBitmaps", "baseline" }) {
+            baseline.remove(key);
+        }
+
+        File file = new File(System.getProperty("stress.baseline", "src/test/resources/" + BASELINE));
+
+        if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Cannot create baseline dir.");
+        }
+
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(baseline.toString(2) + "\n");
+        }
+    }
+
+    private static void writeResult(JSONObject result) throws Exception {
+        File directory = new File(System.getProperty("stress.output", "build/reports/stress"));
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create stress output dir.");
+        }
+
+        try (Writer writer = new FileWriter(new File(directory, "stress.json"))) {
+            writer.write(result.toString(2) + "\n");
+        }
+    }
+
+    /**
+     * 4:3 JPEG of the configured size, each fixture with a different pattern.
+     */
+    private File createFixture(File file, int seed) throws IOException {
+        int width = (int) Math.sqrt(megapixels * 1_000_000d * 4 / 3);
+        int height = width * 3 / 4;
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        int[] row = new int[width];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = 0xFF000000 | (((x + seed * 31) * 255 / width) << 16) | ((y * 255 / height) << 8) | ((x ^ y ^ seed) & 0xFF);
+            }
+
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            assertTrue(bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out));
+        } finally {
+            bitmap.recycle();
+        }
+
+        return file;
+    }
+}
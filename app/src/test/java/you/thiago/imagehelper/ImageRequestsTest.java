@@ -0,0 +1,118 @@
+package you.thiago.imagehelper;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sharing and cancellation of {@link ImageRequests} (plain JUnit, join does not touch the Android APIs).
+ */
+public class ImageRequestsTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch proceed = new CountDownLatch(1);
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        proceed.countDown();
+    }
+
+    @Test
+    public void join_equalKeys_runOnce() throws Exception {
+        ImageRequests.Handle<Object> first = ImageRequests.join(ImageRequests.key("test", "once"), task());
+        ImageRequests.Handle<Object> second = ImageRequests.join(ImageRequests.key("test", "once"), task());
+
+        proceed.countDown();
+
+        Object result = first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertSame(result, second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void cancel_oneOfTwo_keepsWork() throws Exception {
+        ImageRequests.Handle<Object> first = ImageRequests.join(ImageRequests.key("test", "keep"), task());
+        ImageRequests.Handle<Object> second = ImageRequests.join(ImageRequests.key("test", "keep"), task());
+
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(first.cancel(true));
+
+        proceed.countDown();
+
+        assertNotNull(second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, interrupted.getCount());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void cancel_lastHandle_interruptsAndLeaves() throws Exception {
+        ImageRequests.Key key = ImageRequests.key("test", "last");
+        ImageRequests.Handle<Object> handle = ImageRequests.join(key, task());
+
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(ImageRequests.isInFlight(key));
+        assertTrue(handle.cancel(true));
+
+        assertFalse(ImageRequests.isInFlight(key));
+        assertTrue("work not interrupted", interrupted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void join_afterLastCancel_startsNewRequest() throws Exception {
+        ImageRequests.Handle<Object> cancelled = ImageRequests.join(ImageRequests.key("test", "again"), task());
+
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(cancelled.cancel(true));
+
+        ImageRequests.Handle<Object> handle = ImageRequests.join(ImageRequests.key("test", "again"), task());
+        proceed.countDown();
+
+        assertNotNull(handle.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, runs.get());
+    }
+
+    @Test(expected = CancellationException.class)
+    public void get_afterOwnCancel_throws() throws Exception {
+        ImageRequests.Handle<Object> first = ImageRequests.join(ImageRequests.key("test", "own"), task());
+        ImageRequests.Handle<Object> second = ImageRequests.join(ImageRequests.key("test", "own"), task());
+
+        assertTrue(first.cancel(true));
+        assertTrue(first.isCancelled());
+
+        proceed.countDown();
+        assertNotNull(second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        first.get();
+    }
+
+    /**
+     * Task that counts its runs and blocks until proceed (or its interruption, which it records).
+     */
+    private Callable<Object> task() {
+        return () -> {
+            runs.incrementAndGet();
+            started.countDown();
+
+            try {
+                assertTrue(proceed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+
+            return new Object();
+        };
+    }
+}
@@ -0,0 +1,207 @@
+package you.thiago.imagehelper;
+
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link FakeImageProvider} that behaves like slow or remote storage, to measure the I/O of the read paths.
+ *
+ * Every read open is counted. How the content is handed out depends on {@link Access}: a plain file descriptor,
+ * a pipe (not seekable, throttled to the configured bytes per second, bytes counted) or a section of a file
+ * (no whole file descriptor, ContentResolver#openFileDescriptor fails and only streams can be opened).
+ */
+public class SlowImageProvider extends FakeImageProvider {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    public enum Access {
+        /* seekable file descriptor, like a local file (bytes read are not counted) */
+        FILE,
+        /* pipe fed by a writer thread, like a network backed provider */
+        PIPE,
+        /* declared length file section, like assets (bytes read are not counted) */
+        ASSET
+    }
+
+    private final AtomicInteger opens = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private final Set<Thread> writers = ConcurrentHashMap.newKeySet();
+
+    private volatile Access access = Access.FILE;
+    private volatile long bytesPerSecond;
+
+    public SlowImageProvider setAccess(@NonNull Access access) {
+        this.access = access;
+        return this;
+    }
+
+    public Access getAccess() {
+        return access;
+    }
+
+    /**
+     * Throughput of {@link Access#PIPE} reads, zero or less to not throttle.
+     */
+    public SlowImageProvider setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Read opens since the last {@link #resetCounters()}, failed ones included.
+     */
+    public int getOpenCount() {
+        return opens.get();
+    }
+
+    /**
+     * Bytes pushed into {@link Access#PIPE} reads since the last {@link #resetCounters()}. A reader that stops early
+     * is still charged for what the pipe buffered, so it is an upper bound (by the pipe buffer size per open).
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public void resetCounters() {
+        opens.set(0);
+        bytesRead.set(0);
+    }
+
+    /**
+     * Wait for the pipe writers to finish, so {@link #getBytesRead()} is final.
+     *
+     * @return false if some writer is still running after the timeout
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        for (Thread writer : writers) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+            if (remaining <= 0) {
+                return false;
+            }
+
+            writer.join(remaining);
+        }
+
+        return writers.isEmpty();
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (mode.contains("w")) {
+            return super.openFile(uri, mode);
+        }
+
+        opens.incrementAndGet();
+
+        ParcelFileDescriptor descriptor = super.openFile(uri, mode);
+
+        return descriptor != null && access == Access.PIPE ? pipe(descriptor) : descriptor;
+    }
+
+    @Nullable
+    @Override
+    public AssetFileDescriptor openAssetFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        ParcelFileDescriptor descriptor = openFile(uri, mode);
+
+        if (descriptor == null) {
+            return null;
+        }
+
+        // a declared length makes ContentResolver#openFileDescriptor fail with "Not a whole file"
+        long length = access == Access.ASSET && !mode.contains("w") ? getFile(uri).length() : AssetFileDescriptor.UNKNOWN_LENGTH;
+
+        return new AssetFileDescriptor(descriptor, 0, length);
+    }
+
+    /**
+     * Read end of a pipe fed (and throttled) from source by a writer thread.
+     */
+    private ParcelFileDescriptor pipe(ParcelFileDescriptor source) throws FileNotFoundException {
+        ParcelFileDescriptor[] pipe;
+
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            closeQuietly(source);
+            throw new FileNotFoundException(e.getMessage());
+        }
+
+        Thread writer = new Thread(() -> {
+            try {
+                write(source, pipe[1]);
+            } finally {
+                writers.remove(Thread.currentThread());
+            }
+        }, "SlowImageProvider-pipe");
+
+        writers.add(writer);
+        writer.start();
+
+        return pipe[0];
+    }
+
+    private void write(ParcelFileDescriptor source, ParcelFileDescriptor sink) {
+        try (InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(source);
+             OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(sink)) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            long start = System.nanoTime();
+            long sent = 0;
+            int read;
+
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+
+                sent += read;
+                bytesRead.addAndGet(read);
+
+                throttle(start, sent);
+            }
+        } catch (IOException e) {
+            // reader closed its end before the end of the content (header reads), nothing else to send
+        } catch (InterruptedException e) {
+            Log.e(SlowImageProvider.class.getSimpleName(), e.getMessage(), e);
+        }
+    }
+
+    private void throttle(long start, long sent) throws InterruptedException {
+        long rate = bytesPerSecond;
+
+        if (rate <= 0) {
+            return;
+        }
+
+        long wait = TimeUnit.SECONDS.toNanos(sent) / rate - (System.nanoTime() - start);
+
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private static void closeQuietly(ParcelFileDescriptor descriptor) {
+        try {
+            descriptor.close();
+        } catch (IOException e) {
+            Log.e(SlowImageProvider.class.getSimpleName(), e.getMessage(), e);
+        }
+    }
+}
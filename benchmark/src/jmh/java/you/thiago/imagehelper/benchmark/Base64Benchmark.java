@@ -0,0 +1,65 @@
+package you.thiago.imagehelper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import you.thiago.imagehelper.core.Base64Sink;
+
+/**
+ * Base64 step of toBase64 (encode compressed bytes) and toBitmap (decode string), on camera sized payloads.
+ * The streaming encoder is fed in compressor sized writes and discards its output, as a network sink would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Base64Benchmark {
+
+    /* write size of the Skia JPEG encoder output stream */
+    private static final int WRITE_SIZE = 4 * 1024;
+
+    @Param({ "1", "12", "48", "108" })
+    public int megapixels;
+
+    private byte[] jpeg;
+    private String base64;
+
+    @Setup
+    public void setup() {
+        jpeg = SyntheticImages.getJpegPayload(megapixels, megapixels);
+        base64 = Base64.getMimeEncoder().encodeToString(jpeg);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64.getMimeEncoder().encodeToString(jpeg);
+    }
+
+    @Benchmark
+    public long encodeStream() throws IOException {
+        Base64Sink sink = new Base64Sink(OutputStream.nullOutputStream(), Base64Sink.LineBreak.NEWLINE);
+
+        for (int offset = 0; offset < jpeg.length; offset += WRITE_SIZE) {
+            sink.write(jpeg, offset, Math.min(WRITE_SIZE, jpeg.length - offset));
+        }
+
+        sink.finish();
+
+        return sink.getEncodedBytes();
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base64.getMimeDecoder().decode(base64);
+    }
+}
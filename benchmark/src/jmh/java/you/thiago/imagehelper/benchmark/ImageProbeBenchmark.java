@@ -0,0 +1,44 @@
+package you.thiago.imagehelper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import you.thiago.imagehelper.core.ImageHeader;
+
+/**
+ * Header probe of camera like JPEGs, with and without large APP2 segments before SOF.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImageProbeBenchmark {
+
+    @Param({ "1", "12", "48", "108" })
+    public int megapixels;
+
+    @Param({ "0", "131072" })
+    public int paddingBytes;
+
+    private byte[] header;
+
+    @Setup
+    public void setup() {
+        int[] dimensions = SyntheticImages.getDimensions(megapixels);
+        header = SyntheticImages.getJpegHeader(dimensions[0], dimensions[1], 6, paddingBytes);
+    }
+
+    @Benchmark
+    public ImageHeader probe() throws IOException {
+        return ImageHeader.read(new ByteArrayInputStream(header));
+    }
+}
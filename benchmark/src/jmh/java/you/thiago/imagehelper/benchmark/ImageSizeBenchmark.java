@@ -0,0 +1,53 @@
+package you.thiago.imagehelper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import you.thiago.imagehelper.core.ImageSizing;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImageSizeBenchmark {
+
+    /* ImageComponent defaults */
+    private static final int MAX_WIDTH = 1280;
+    private static final int MAX_HEIGHT = 960;
+
+    @Param({ "1", "12", "48", "108" })
+    public int megapixels;
+
+    private int width;
+    private int height;
+
+    @Setup
+    public void setup() {
+        int[] dimensions = SyntheticImages.getDimensions(megapixels);
+
+        width = dimensions[0];
+        height = dimensions[1];
+    }
+
+    @Benchmark
+    public int[] calculateSize() {
+        return ImageSizing.fit(width, height, MAX_WIDTH, MAX_HEIGHT);
+    }
+
+    @Benchmark
+    public int calculateInSampleSize() {
+        return ImageSizing.calculateInSampleSize(width, height, MAX_WIDTH, MAX_HEIGHT);
+    }
+
+    @Benchmark
+    public ImageSizing.Plan plan() {
+        return ImageSizing.plan(width, height, MAX_WIDTH, MAX_HEIGHT);
+    }
+}
@@ -0,0 +1,98 @@
+package you.thiago.imagehelper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.TimeUnit;
+
+import you.thiago.imagehelper.core.ParallelKernels;
+import you.thiago.imagehelper.core.PixelKernels;
+
+/**
+ * Pixel kernels on direct buffers (as staged from a Bitmap), serial against ForkJoin stripes.
+ * The Matrix path is measured by the Robolectric benchmark (rotateImage/scaleDown against *Striped).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PixelKernelBenchmark {
+
+    /* ImageComponent defaults */
+    private static final int MAX_WIDTH = 1280;
+    private static final int MAX_HEIGHT = 960;
+
+    @Param({ "4", "12", "48" })
+    public int megapixels;
+
+    private int width;
+    private int height;
+    private int scaledWidth;
+    private int scaledHeight;
+
+    private IntBuffer source;
+    private IntBuffer target;
+
+    @Setup
+    public void setup() {
+        int[] dimensions = SyntheticImages.getDimensions(megapixels);
+
+        width = dimensions[0];
+        height = dimensions[1];
+        scaledWidth = Math.min(MAX_WIDTH, width);
+        scaledHeight = Math.min(MAX_HEIGHT, height);
+
+        source = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        target = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+
+        for (int i = 0; i < width * height; i++) {
+            source.put(i, 0xFF000000 | (i * 31));
+        }
+
+        ParallelKernels.setMinPixels(0);
+    }
+
+    @Benchmark
+    public IntBuffer rotate90() {
+        PixelKernels.rotate(source, width, height, target, 90, 0, width);
+        return target;
+    }
+
+    @Benchmark
+    public IntBuffer rotate90Striped() {
+        ParallelKernels.rotate(source, width, height, target, 90);
+        return target;
+    }
+
+    @Benchmark
+    public IntBuffer mirror() {
+        PixelKernels.mirror(source, width, height, target, true, 0, height);
+        return target;
+    }
+
+    @Benchmark
+    public IntBuffer mirrorStriped() {
+        ParallelKernels.mirror(source, width, height, target, true);
+        return target;
+    }
+
+    @Benchmark
+    public IntBuffer scaleArea() {
+        PixelKernels.scaleArea(source, width, height, target, scaledWidth, scaledHeight, 0, scaledHeight);
+        return target;
+    }
+
+    @Benchmark
+    public IntBuffer scaleAreaStriped() {
+        ParallelKernels.scaleArea(source, width, height, target, scaledWidth, scaledHeight);
+        return target;
+    }
+}
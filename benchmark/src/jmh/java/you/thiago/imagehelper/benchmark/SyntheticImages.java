@@ -0,0 +1,86 @@
+package you.thiago.imagehelper.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Synthetic inputs for the benchmarks, generated in memory so results do not depend on fixtures.
+ */
+final class SyntheticImages {
+
+    /* average size of a camera JPEG, in bytes per pixel */
+    private static final double JPEG_BYTES_PER_PIXEL = 0.25;
+
+    private SyntheticImages() {}
+
+    /**
+     * Width and height of a 4:3 image with about the given megapixels.
+     */
+    static int[] getDimensions(int megapixels) {
+        int width = (int) Math.sqrt(megapixels * 1_000_000d * 4 / 3);
+        int height = width * 3 / 4;
+
+        return new int[] { width, height };
+    }
+
+    /**
+     * Random bytes with the size of a camera JPEG of the given megapixels.
+     */
+    static byte[] getJpegPayload(int megapixels, long seed) {
+        byte[] data = new byte[(int) (megapixels * 1_000_000d * JPEG_BYTES_PER_PIXEL)];
+        new Random(seed).nextBytes(data);
+
+        return data;
+    }
+
+    /**
+     * JPEG header (SOI, APP0, APP1 EXIF with orientation, APP2 padding, SOF0, SOS) as written by cameras.
+     */
+    static byte[] getJpegHeader(int width, int height, int orientation, int paddingBytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // SOI
+        out.write(0xFF);
+        out.write(0xD8);
+
+        // APP0 (JFIF)
+        writeSegment(out, 0xE0, new byte[] { 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0 });
+
+        // APP1 EXIF, big endian TIFF with a single IFD0 entry (orientation)
+        byte[] exif = new byte[] {
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 0x2A, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        };
+        writeSegment(out, 0xE1, exif);
+
+        // APP2 (ICC profile like), pushes SOF further in the stream
+        int remaining = paddingBytes;
+
+        while (remaining > 0) {
+            int length = Math.min(remaining, 65533);
+            writeSegment(out, 0xE2, new byte[length]);
+            remaining -= length;
+        }
+
+        // SOF0
+        writeSegment(out, 0xC0, new byte[] { 8, (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width, 3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1 });
+
+        // SOS
+        writeSegment(out, 0xDA, new byte[] { 3, 1, 0, 2, 0x11, 3, 0x11, 0, 0x3F, 0 });
+
+        return out.toByteArray();
+    }
+
+    private static void writeSegment(ByteArrayOutputStream out, int marker, byte[] data) {
+        int length = data.length + 2;
+
+        out.write(0xFF);
+        out.write(marker);
+        out.write(length >> 8);
+        out.write(length);
+        out.write(data, 0, data.length);
+    }
+}
@@ -0,0 +1,224 @@
+package you.thiago.imagehelper.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming Base64 encoder, that writes into another OutputStream in fixed size chunks.
+ *
+ * Bytes are encoded as they are written (e.g. while the JPEG encoder produces them), so memory use is
+ * bounded by the chunk size whatever the image size. The output can be a single line (same as Base64.NO_WRAP),
+ * have the Base64.DEFAULT line breaks, or have those line breaks escaped ("\n" as two chars) so the stream can
+ * be written straight into a JSON string.
+ *
+ * {@link #finish()} must be called after the last byte, it writes the padding and flushes the target
+ * without closing it. {@link #close()} finishes and closes the target.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class Base64Sink extends OutputStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+    /* Base64.DEFAULT line length */
+    public static final int LINE_LENGTH = 76;
+
+    private static final int MIN_CHUNK_SIZE = 16;
+
+    private static final byte[] ALPHABET = {
+            'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P',
+            'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z', 'a', 'b', 'c', 'd', 'e', 'f',
+            'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v',
+            'w', 'x', 'y', 'z', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/'
+    };
+
+    public enum LineBreak {
+        /* single line, same as Base64.NO_WRAP */
+        NONE,
+        /* "\n" every 76 chars and at the end, same as Base64.DEFAULT */
+        NEWLINE,
+        /* same breaks as NEWLINE, written as the JSON escape sequence "\\n" */
+        JSON_ESCAPED
+    }
+
+    private final OutputStream out;
+    private final LineBreak lineBreak;
+    private final byte[] chunk;
+
+    private final byte[] tail = new byte[3];
+
+    private int tailLength;
+    private int position;
+    private int column;
+    private long encodedBytes;
+    private boolean finished;
+
+    public Base64Sink(OutputStream out) {
+        this(out, LineBreak.NONE, DEFAULT_CHUNK_SIZE);
+    }
+
+    public Base64Sink(OutputStream out, LineBreak lineBreak) {
+        this(out, lineBreak, DEFAULT_CHUNK_SIZE);
+    }
+
+    public Base64Sink(OutputStream out, LineBreak lineBreak, int chunkSize) {
+        this.out = out;
+        this.lineBreak = lineBreak;
+        this.chunk = new byte[Math.max(chunkSize, MIN_CHUNK_SIZE)];
+    }
+
+    /**
+     * Encoded bytes already handed to the target stream (or waiting on the chunk).
+     */
+    public long getEncodedBytes() {
+        return encodedBytes + position;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        checkOpen();
+
+        tail[tailLength++] = (byte) value;
+
+        if (tailLength == 3) {
+            encode(tail[0], tail[1], tail[2]);
+            tailLength = 0;
+        }
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        checkOpen();
+
+        int end = offset + length;
+
+        // complete the group left by the previous write
+        if (tailLength > 0) {
+            while (tailLength < 3 && offset < end) {
+                tail[tailLength++] = data[offset++];
+            }
+
+            if (tailLength < 3) {
+                return;
+            }
+
+            encode(tail[0], tail[1], tail[2]);
+            tailLength = 0;
+        }
+
+        while (end - offset >= 3) {
+            encode(data[offset], data[offset + 1], data[offset + 2]);
+            offset += 3;
+        }
+
+        while (offset < end) {
+            tail[tailLength++] = data[offset++];
+        }
+    }
+
+    /**
+     * Hand the encoded chunk to the target. A group waiting for more bytes is kept until {@link #finish()}.
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Encode the remaining bytes with padding, add the final line break (if any) and flush the target.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+
+        if (tailLength > 0) {
+            ensure(6);
+
+            int b0 = tail[0] & 0xff;
+            int b1 = tailLength > 1 ? tail[1] & 0xff : 0;
+
+            chunk[position++] = ALPHABET[b0 >> 2];
+            chunk[position++] = ALPHABET[((b0 & 0x03) << 4) | (b1 >> 4)];
+            chunk[position++] = tailLength > 1 ? ALPHABET[(b1 & 0x0f) << 2] : (byte) '=';
+            chunk[position++] = '=';
+
+            column += 4;
+            tailLength = 0;
+        }
+
+        if (column > 0) {
+            ensure(2);
+            lineBreak();
+        }
+
+        finished = true;
+        flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void encode(byte first, byte second, byte third) throws IOException {
+        ensure(6);
+
+        int bits = (first & 0xff) << 16 | (second & 0xff) << 8 | (third & 0xff);
+
+        chunk[position++] = ALPHABET[(bits >> 18) & 0x3f];
+        chunk[position++] = ALPHABET[(bits >> 12) & 0x3f];
+        chunk[position++] = ALPHABET[(bits >> 6) & 0x3f];
+        chunk[position++] = ALPHABET[bits & 0x3f];
+
+        column += 4;
+
+        if (column == LINE_LENGTH) {
+            lineBreak();
+        }
+    }
+
+    private void lineBreak() {
+        switch (lineBreak) {
+            case NEWLINE: {
+                chunk[position++] = '\n';
+                break;
+            }
+            case JSON_ESCAPED: {
+                chunk[position++] = '\\';
+                chunk[position++] = 'n';
+                break;
+            }
+            default: {
+                break;
+            }
+        }
+
+        column = 0;
+    }
+
+    private void ensure(int length) throws IOException {
+        if (position + length > chunk.length) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (position > 0) {
+            out.write(chunk, 0, position);
+
+            encodedBytes += position;
+            position = 0;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Base64 stream already finished.");
+        }
+    }
+}
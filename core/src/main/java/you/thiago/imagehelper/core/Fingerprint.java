@@ -0,0 +1,79 @@
+package you.thiago.imagehelper.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Fast content fingerprint of a file: size, modified time and a hash of sampled blocks (head, middle and tail).
+ *
+ * Only {@link #BLOCK_SIZE} bytes per sample are read (positional reads, the channel position is not changed),
+ * so the cost does not grow with the file. Good enough to recognize the same picked image, not a full checksum.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class Fingerprint {
+
+    public static final int BLOCK_SIZE = 16 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Fingerprint() {}
+
+    /**
+     * @param modified last modified time of the source, 0 if unknown
+     */
+    public static String of(FileChannel channel, long modified) throws IOException {
+        long size = channel.size();
+        MessageDigest digest = newDigest();
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+
+        if (size <= BLOCK_SIZE * 3L) {
+            update(digest, channel, block, 0, size);
+        } else {
+            update(digest, channel, block, 0, BLOCK_SIZE);
+            update(digest, channel, block, (size - BLOCK_SIZE) / 2, BLOCK_SIZE);
+            update(digest, channel, block, size - BLOCK_SIZE, BLOCK_SIZE);
+        }
+
+        return size + "-" + modified + "-" + toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, FileChannel channel, ByteBuffer block, long position, long length) throws IOException {
+        long end = position + length;
+
+        while (position < end) {
+            block.clear();
+            block.limit((int) Math.min(block.capacity(), end - position));
+
+            int read = channel.read(block, position);
+
+            if (read < 0) {
+                break;
+            }
+
+            digest.update(block.array(), 0, read);
+            position += read;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+
+        return new String(chars);
+    }
+}
@@ -0,0 +1,600 @@
+package you.thiago.imagehelper.core;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Image dimensions and orientation read from the header only.
+ *
+ * Supports JPEG SOI/APP1/SOF markers, PNG IHDR, WebP VP8/VP8L/VP8X (+ EXIF chunk) and the HEIF/AVIF meta box
+ * (ispe/irot of the primary item).
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageHeader {
+
+    public static final String MIME_JPEG = "image/jpeg";
+    public static final String MIME_PNG = "image/png";
+    public static final String MIME_WEBP = "image/webp";
+    public static final String MIME_HEIF = "image/heif";
+
+    /* upper bound of bytes read (or skipped) looking for the size markers */
+    private static final int MAX_HEADER_BYTES = 512 * 1024;
+    private static final int MAX_SEGMENT_BYTES = 64 * 1024;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+    public int width;
+    public int height;
+
+    /* EXIF orientation (1..8), 1 (normal) when the header has none, Orientation.UNKNOWN when it was not reached */
+    public int exifOrientation = Orientation.NORMAL;
+
+    public String mimeType;
+
+    public ImageHeader() {}
+
+    public ImageHeader(ImageHeader header) {
+        width = header.width;
+        height = header.height;
+        exifOrientation = header.exifOrientation;
+        mimeType = header.mimeType;
+    }
+
+    /**
+     * Clockwise rotation in degrees to display the image upright.
+     */
+    public float getRotation() {
+        return Orientation.getRotation(exifOrientation);
+    }
+
+    public boolean hasSize() {
+        return width > 0 && height > 0;
+    }
+
+    /**
+     * False when the image has EXIF data the header read could not reach, the orientation has to be read elsewhere.
+     */
+    public boolean hasOrientation() {
+        return exifOrientation != Orientation.UNKNOWN;
+    }
+
+    /**
+     * Read image header from stream. The stream is left open and positioned somewhere after the header.
+     *
+     * @return null if the format is not supported
+     */
+    public static ImageHeader read(InputStream in) throws IOException {
+        Reader reader = new Reader(in.markSupported() ? in : new BufferedInputStream(in, BUFFER_SIZE));
+
+        int first = reader.readU8();
+        int second = reader.readU8();
+
+        if (first == 0xFF && second == 0xD8) {
+            return readJpeg(reader);
+        }
+        if (first == 0x89 && second == 'P') {
+            return readPng(reader);
+        }
+        if (first == 'R' && second == 'I') {
+            return readWebp(reader);
+        }
+
+        return readHeif(reader, first, second);
+    }
+
+    private static ImageHeader readJpeg(Reader reader) throws IOException {
+        ImageHeader info = new ImageHeader();
+        info.mimeType = MIME_JPEG;
+
+        boolean exifFound = false;
+
+        while (reader.position < MAX_HEADER_BYTES) {
+            int marker = reader.readU8();
+
+            if (marker != 0xFF) {
+                return info;
+            }
+
+            // skip fill bytes
+            do {
+                marker = reader.readU8();
+            } while (marker == 0xFF);
+
+            // standalone markers (no length)
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                continue;
+            }
+            // start of scan / end of image, size should be already found
+            if (marker == 0xDA || marker == 0xD9) {
+                return info;
+            }
+
+            int length = reader.readU16(true) - 2;
+
+            if (length < 0) {
+                return info;
+            }
+
+            if (marker == 0xE1 && !exifFound && length >= 14) {
+                byte[] segment = reader.readBytes(length);
+
+                if (segment[0] == 'E' && segment[1] == 'x' && segment[2] == 'i' && segment[3] == 'f' && segment[4] == 0 && segment[5] == 0) {
+                    exifFound = true;
+                    info.exifOrientation = readTiffOrientation(segment, 6, length - 6);
+                }
+            } else if (isStartOfFrame(marker) && length >= 5) {
+                reader.readU8(); // precision
+
+                info.height = reader.readU16(true);
+                info.width = reader.readU16(true);
+
+                // APP1 comes before SOF, nothing else to read
+                return info;
+            } else {
+                reader.skip(length);
+            }
+        }
+
+        return info;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static ImageHeader readPng(Reader reader) throws IOException {
+        // remaining signature (6 bytes), IHDR length (4) and type (4)
+        reader.skip(6);
+
+        int length = reader.readS32(true);
+        int type = reader.readS32(true);
+
+        if (type != fourCC("IHDR") || length < 8) {
+            return null;
+        }
+
+        ImageHeader info = new ImageHeader();
+        info.mimeType = MIME_PNG;
+        info.width = reader.readS32(true);
+        info.height = reader.readS32(true);
+
+        return info;
+    }
+
+    private static ImageHeader readWebp(Reader reader) throws IOException {
+        // "FF" of RIFF, file size, "WEBP"
+        reader.skip(6);
+
+        if (reader.readS32(true) != fourCC("WEBP")) {
+            return null;
+        }
+
+        ImageHeader info = new ImageHeader();
+        info.mimeType = MIME_WEBP;
+
+        boolean hasExif = false;
+
+        while (reader.position < MAX_HEADER_BYTES) {
+            int type = reader.readS32(true);
+            int length = reader.readS32(false);
+            int padded = length + (length & 1);
+
+            if (length < 0) {
+                return info;
+            }
+
+            if (type == fourCC("VP8X") && length >= 10) {
+                int flags = reader.readU8();
+                reader.skip(3);
+
+                info.width = reader.readU24() + 1;
+                info.height = reader.readU24() + 1;
+                hasExif = (flags & 0x08) != 0;
+
+                reader.skip(padded - 10);
+
+                if (!hasExif) {
+                    return info;
+                }
+            } else if (type == fourCC("VP8 ") && length >= 10) {
+                // frame tag (3), start code (3), then 14 bits width/height
+                reader.skip(6);
+
+                info.width = reader.readU16(false) & 0x3FFF;
+                info.height = reader.readU16(false) & 0x3FFF;
+
+                reader.skip(padded - 10);
+
+                if (!hasExif) {
+                    return info;
+                }
+            } else if (type == fourCC("VP8L") && length >= 5) {
+                reader.readU8(); // signature
+
+                int bits = reader.readS32(false);
+                info.width = (bits & 0x3FFF) + 1;
+                info.height = ((bits >> 14) & 0x3FFF) + 1;
+
+                reader.skip(padded - 5);
+
+                if (!hasExif) {
+                    return info;
+                }
+            } else if (type == fourCC("EXIF") && length > MAX_SEGMENT_BYTES) {
+                info.exifOrientation = Orientation.UNKNOWN;
+                return info;
+            } else if (type == fourCC("EXIF")) {
+                byte[] exif = reader.readBytes(length);
+                int offset = (length >= 6 && exif[0] == 'E' && exif[1] == 'x' && exif[2] == 'i' && exif[3] == 'f') ? 6 : 0;
+
+                info.exifOrientation = readTiffOrientation(exif, offset, length - offset);
+                reader.skip(padded - length);
+
+                return info;
+            } else {
+                reader.skip(padded);
+            }
+        }
+
+        // EXIF chunk (usually after the image data) beyond the bytes read
+        if (hasExif) {
+            info.exifOrientation = Orientation.UNKNOWN;
+        }
+
+        return info;
+    }
+
+    /**
+     * ISOBMFF (HEIF/AVIF): ftyp, then meta > pitm (primary item), iprp > ipco (ispe, irot) and ipma (associations).
+     */
+    private static ImageHeader readHeif(Reader reader, int first, int second) throws IOException {
+        long ftypSize = ((long) first << 24) | ((long) second << 16) | reader.readU16(true);
+
+        if (reader.readS32(true) != fourCC("ftyp") || ftypSize < 12 || ftypSize > MAX_SEGMENT_BYTES) {
+            return null;
+        }
+
+        int brand = reader.readS32(true);
+
+        if (brand != fourCC("heic") && brand != fourCC("heix") && brand != fourCC("mif1")
+                && brand != fourCC("msf1") && brand != fourCC("hevc") && brand != fourCC("avif")) {
+            return null;
+        }
+
+        reader.skip((int) ftypSize - 12);
+
+        while (reader.position < MAX_HEADER_BYTES) {
+            long size = reader.readS32(true) & 0xFFFFFFFFL;
+            int type = reader.readS32(true);
+
+            if (size < 8) {
+                return null;
+            }
+
+            if (type == fourCC("meta") && size - 8 <= MAX_HEADER_BYTES) {
+                byte[] meta = reader.readBytes((int) size - 8);
+                return readHeifMeta(meta);
+            }
+
+            if (size - 8 > MAX_HEADER_BYTES) {
+                return null;
+            }
+
+            reader.skip((int) size - 8);
+        }
+
+        return null;
+    }
+
+    private static ImageHeader readHeifMeta(byte[] meta) {
+        int primaryItem = -1;
+        int ipcoStart = -1;
+        int ipcoEnd = -1;
+        int ipmaStart = -1;
+        int ipmaEnd = -1;
+
+        // meta is a full box, children start after version/flags
+        int offset = 4;
+
+        while (offset + 8 <= meta.length) {
+            int size = getS32(meta, offset);
+            int type = getS32(meta, offset + 4);
+
+            if (size < 8 || offset + size > meta.length) {
+                break;
+            }
+
+            if (type == fourCC("pitm")) {
+                int version = meta[offset + 8] & 0xFF;
+                primaryItem = version == 0 ? getU16(meta, offset + 12) : getS32(meta, offset + 12);
+            } else if (type == fourCC("iprp")) {
+                int child = offset + 8;
+
+                while (child + 8 <= offset + size) {
+                    int childSize = getS32(meta, child);
+                    int childType = getS32(meta, child + 4);
+
+                    if (childSize < 8 || child + childSize > offset + size) {
+                        break;
+                    }
+
+                    if (childType == fourCC("ipco")) {
+                        ipcoStart = child + 8;
+                        ipcoEnd = child + childSize;
+                    } else if (childType == fourCC("ipma")) {
+                        ipmaStart = child + 8;
+                        ipmaEnd = child + childSize;
+                    }
+
+                    child += childSize;
+                }
+            }
+
+            offset += size;
+        }
+
+        if (ipcoStart < 0) {
+            return null;
+        }
+
+        int[] properties = getHeifAssociations(meta, ipmaStart, ipmaEnd, primaryItem);
+
+        ImageHeader info = new ImageHeader();
+        info.mimeType = MIME_HEIF;
+
+        int index = 0;
+        int property = ipcoStart;
+
+        while (property + 8 <= ipcoEnd) {
+            int size = getS32(meta, property);
+            int type = getS32(meta, property + 4);
+
+            if (size < 8 || property + size > ipcoEnd) {
+                break;
+            }
+
+            index++;
+
+            // without associations, fallback to the largest ispe and the first irot
+            boolean associated = properties == null || contains(properties, index);
+
+            if (associated && type == fourCC("ispe") && size >= 20) {
+                int width = getS32(meta, property + 12);
+                int height = getS32(meta, property + 16);
+
+                if (properties != null || (long) width * height > (long) info.width * info.height) {
+                    info.width = width;
+                    info.height = height;
+                }
+            } else if (associated && type == fourCC("irot") && size >= 9) {
+                // counter-clockwise steps of 90 degrees
+                switch (meta[property + 8] & 0x03) {
+                    case 1: {
+                        info.exifOrientation = Orientation.ROTATE_270;
+                        break;
+                    }
+                    case 2: {
+                        info.exifOrientation = Orientation.ROTATE_180;
+                        break;
+                    }
+                    case 3: {
+                        info.exifOrientation = Orientation.ROTATE_90;
+                        break;
+                    }
+                    default: {
+                        break;
+                    }
+                }
+            }
+
+            property += size;
+        }
+
+        return info;
+    }
+
+    private static int[] getHeifAssociations(byte[] meta, int start, int end, int item) {
+        if (start < 0 || item < 0 || start + 8 > end) {
+            return null;
+        }
+
+        int version = meta[start] & 0xFF;
+        int flags = meta[start + 3] & 0xFF;
+        int count = getS32(meta, start + 4);
+        int offset = start + 8;
+
+        for (int i = 0; i < count && offset < end; i++) {
+            int id;
+
+            if (version < 1) {
+                id = getU16(meta, offset);
+                offset += 2;
+            } else {
+                id = getS32(meta, offset);
+                offset += 4;
+            }
+
+            int associations = meta[offset++] & 0xFF;
+            int[] properties = new int[associations];
+
+            for (int j = 0; j < associations && offset < end; j++) {
+                if ((flags & 1) != 0) {
+                    properties[j] = getU16(meta, offset) & 0x7FFF;
+                    offset += 2;
+                } else {
+                    properties[j] = meta[offset] & 0x7F;
+                    offset += 1;
+                }
+            }
+
+            if (id == item) {
+                return properties;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Read orientation tag from IFD0 of a TIFF header (EXIF payload).
+     */
+    private static int readTiffOrientation(byte[] data, int start, int length) {
+        if (length < 8) {
+            return Orientation.NORMAL;
+        }
+
+        boolean bigEndian;
+
+        if (data[start] == 'M' && data[start + 1] == 'M') {
+            bigEndian = true;
+        } else if (data[start] == 'I' && data[start + 1] == 'I') {
+            bigEndian = false;
+        } else {
+            return Orientation.NORMAL;
+        }
+
+        int ifd = getS32(data, start + 4, bigEndian);
+
+        if (ifd < 8 || ifd + 2 > length) {
+            return Orientation.NORMAL;
+        }
+
+        int entries = getU16(data, start + ifd, bigEndian);
+
+        for (int i = 0; i < entries; i++) {
+            int entry = start + ifd + 2 + i * 12;
+
+            if (entry + 12 > start + length) {
+                break;
+            }
+
+            if (getU16(data, entry, bigEndian) == EXIF_ORIENTATION_TAG) {
+                int orientation = getU16(data, entry + 8, bigEndian);
+                return Orientation.isValid(orientation) ? orientation : Orientation.NORMAL;
+            }
+        }
+
+        return Orientation.NORMAL;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int item : values) {
+            if (item == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int fourCC(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    private static int getU16(byte[] data, int offset) {
+        return getU16(data, offset, true);
+    }
+
+    private static int getU16(byte[] data, int offset, boolean bigEndian) {
+        if (bigEndian) {
+            return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+        }
+
+        return ((data[offset + 1] & 0xFF) << 8) | (data[offset] & 0xFF);
+    }
+
+    private static int getS32(byte[] data, int offset) {
+        return getS32(data, offset, true);
+    }
+
+    private static int getS32(byte[] data, int offset, boolean bigEndian) {
+        if (bigEndian) {
+            return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        }
+
+        return ((data[offset + 3] & 0xFF) << 24) | ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset] & 0xFF);
+    }
+
+    /**
+     * Sequential reader that keeps track of the bytes consumed.
+     */
+    private static class Reader {
+
+        private final InputStream in;
+        private int position;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        int readU8() throws IOException {
+            int value = in.read();
+
+            if (value < 0) {
+                throw new EOFException();
+            }
+
+            position++;
+            return value;
+        }
+
+        int readU16(boolean bigEndian) throws IOException {
+            int first = readU8();
+            int second = readU8();
+
+            return bigEndian ? (first << 8) | second : (second << 8) | first;
+        }
+
+        int readU24() throws IOException {
+            return readU8() | (readU8() << 8) | (readU8() << 16);
+        }
+
+        int readS32(boolean bigEndian) throws IOException {
+            int first = readU16(bigEndian);
+            int second = readU16(bigEndian);
+
+            return bigEndian ? (first << 16) | second : (second << 16) | first;
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] data = new byte[length];
+            int read = 0;
+
+            while (read < length) {
+                int count = in.read(data, read, length - read);
+
+                if (count < 0) {
+                    throw new EOFException();
+                }
+
+                read += count;
+            }
+
+            position += length;
+            return data;
+        }
+
+        void skip(int length) throws IOException {
+            long remaining = length;
+
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException();
+                    }
+
+                    skipped = 1;
+                }
+
+                remaining -= skipped;
+            }
+
+            position += length;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package you.thiago.imagehelper.core;
+
+/**
+ * Target size and decode sample size of an image bounded by a max width/height.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ImageSizing {
+
+    public static class Plan {
+
+        public final int sourceWidth;
+        public final int sourceHeight;
+
+        /* size that fits max width/height, keeping the aspect ratio */
+        public final int width;
+        public final int height;
+
+        /* BitmapFactory inSampleSize (not only powers of two) to decode close to width/height */
+        public final int sampleSize;
+
+        Plan(int sourceWidth, int sourceHeight, int width, int height, int sampleSize) {
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.width = width;
+            this.height = height;
+            this.sampleSize = sampleSize;
+        }
+
+        public boolean isResized() {
+            return width != sourceWidth || height != sourceHeight;
+        }
+    }
+
+    private ImageSizing() {}
+
+    public static Plan plan(int sourceWidth, int sourceHeight, int maxWidth, int maxHeight) {
+        int[] size = fit(sourceWidth, sourceHeight, maxWidth, maxHeight);
+        int sampleSize = calculateInSampleSize(sourceWidth, sourceHeight, size[0], size[1]);
+
+        return new Plan(sourceWidth, sourceHeight, size[0], size[1], sampleSize);
+    }
+
+    /**
+     * Size (width, height) that fits maxWidth/maxHeight keeping the aspect ratio, images already inside
+     * the bounds are not changed.
+     */
+    public static int[] fit(int width, int height, int maxWidth, int maxHeight) {
+        // calculate ratios
+        float imgRatio = (float) width / (float) height;
+        float maxRatio = (float) maxWidth / (float) maxHeight;
+
+        // re-calculate img size
+        if (height > maxHeight || width > maxWidth) {
+            if (imgRatio < maxRatio) {
+                imgRatio = (float) maxHeight / (float) height;
+                width = (int) (imgRatio * width);
+                height = maxHeight;
+            } else if (imgRatio > maxRatio) {
+                imgRatio = (float) maxWidth / (float) width;
+                height = (int) (imgRatio * height);
+                width = maxWidth;
+            } else {
+                height = maxHeight;
+                width = maxWidth;
+            }
+        }
+
+        return new int[] { width, height };
+    }
+
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+
+        if (height > reqHeight || width > reqWidth) {
+            final int heightRatio = Math.round((float) height / (float) reqHeight);
+            final int widthRatio = Math.round((float) width / (float) reqWidth);
+            inSampleSize = Math.min(heightRatio, widthRatio);
+        }
+
+        final float totalPixels = width * height;
+        final float totalReqPixelsCap = reqWidth * reqHeight * 2;
+
+        while (totalPixels / (inSampleSize * inSampleSize) > totalReqPixelsCap) {
+            inSampleSize++;
+        }
+
+        return inSampleSize;
+    }
+}
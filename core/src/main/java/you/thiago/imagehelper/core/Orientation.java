@@ -0,0 +1,54 @@
+package you.thiago.imagehelper.core;
+
+/**
+ * EXIF orientation values (TIFF tag 0x0112) and their display transform.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class Orientation {
+
+    /* the image has an orientation that was not read (not a TIFF value, never valid) */
+    public static final int UNKNOWN = 0;
+
+    public static final int NORMAL = 1;
+    public static final int FLIP_HORIZONTAL = 2;
+    public static final int ROTATE_180 = 3;
+    public static final int FLIP_VERTICAL = 4;
+    public static final int TRANSPOSE = 5;
+    public static final int ROTATE_90 = 6;
+    public static final int TRANSVERSE = 7;
+    public static final int ROTATE_270 = 8;
+
+    private Orientation() {}
+
+    public static boolean isValid(int orientation) {
+        return orientation >= NORMAL && orientation <= ROTATE_270;
+    }
+
+    /**
+     * Clockwise rotation in degrees to display the image upright (mirrored orientations are not rotated).
+     */
+    public static float getRotation(int orientation) {
+        switch (orientation) {
+            case ROTATE_90: {
+                return 90f;
+            }
+            case ROTATE_180: {
+                return 180f;
+            }
+            case ROTATE_270: {
+                return 270f;
+            }
+            default: {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * True for the orientations that also need a mirror (2, 4, 5 and 7).
+     */
+    public static boolean isMirrored(int orientation) {
+        return orientation == FLIP_HORIZONTAL || orientation == FLIP_VERTICAL
+                || orientation == TRANSPOSE || orientation == TRANSVERSE;
+    }
+}
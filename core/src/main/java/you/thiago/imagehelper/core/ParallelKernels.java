@@ -0,0 +1,186 @@
+package you.thiago.imagehelper.core;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link PixelKernels} split into row stripes on a ForkJoinPool, owned by this class unless one is given with
+ * {@link #setPool(ForkJoinPool)} (the common pool is not used, it is missing before Android N).
+ *
+ * Images below {@link #getMinPixels()} run on the calling thread, the split overhead is not worth it there.
+ * Each stripe writes a disjoint range of target rows, so buffers are shared without locking
+ * (only absolute get/put are used, positions are never changed).
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ParallelKernels {
+
+    public static final int DEFAULT_MIN_PIXELS = 2_000_000;
+
+    /* stripes per worker, so a slow stripe does not leave the other workers idle */
+    private static final int STRIPES_PER_THREAD = 4;
+    private static final int MIN_STRIPE_ROWS = 16;
+
+    private static volatile int minPixels = DEFAULT_MIN_PIXELS;
+
+    private static volatile ForkJoinPool pool;
+    private static volatile ForkJoinPool defaultPool;
+
+    private ParallelKernels() {}
+
+    public static int getMinPixels() {
+        return minPixels;
+    }
+
+    /**
+     * Pixel count (of the target) from which kernels run in parallel.
+     */
+    public static void setMinPixels(int pixels) {
+        minPixels = Math.max(0, pixels);
+    }
+
+    /**
+     * Run kernels on the given pool, null to use the default one. Kernels that still see a pool after it is
+     * shut down run on the calling thread.
+     */
+    public static void setPool(ForkJoinPool pool) {
+        ParallelKernels.pool = pool;
+    }
+
+    /**
+     * Parallelism of the default pool: one worker per core but the caller's, at least one.
+     */
+    public static int getDefaultParallelism() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    public static void rotate(IntBuffer source, int width, int height, IntBuffer target, int degrees) {
+        int rows = degrees == 180 ? height : width;
+        int columns = degrees == 180 ? width : height;
+
+        run(rows, columns, (from, to) -> PixelKernels.rotate(source, width, height, target, degrees, from, to));
+    }
+
+    public static void rotate(int[] source, int width, int height, int[] target, int degrees) {
+        rotate(IntBuffer.wrap(source), width, height, IntBuffer.wrap(target), degrees);
+    }
+
+    public static void mirror(IntBuffer source, int width, int height, IntBuffer target, boolean horizontal) {
+        run(height, width, (from, to) -> PixelKernels.mirror(source, width, height, target, horizontal, from, to));
+    }
+
+    public static void mirror(int[] source, int width, int height, int[] target, boolean horizontal) {
+        mirror(IntBuffer.wrap(source), width, height, IntBuffer.wrap(target), horizontal);
+    }
+
+    /**
+     * Area average downscale, the parallel threshold is checked against the source pixels (the work done).
+     */
+    public static void scaleArea(IntBuffer source, int sourceWidth, int sourceHeight, IntBuffer target, int width, int height) {
+        int rowWeight = (int) Math.min(Integer.MAX_VALUE, (long) sourceWidth * sourceHeight / height);
+
+        run(height, rowWeight, (from, to) -> PixelKernels.scaleArea(source, sourceWidth, sourceHeight, target, width, height, from, to));
+    }
+
+    public static void scaleArea(int[] source, int sourceWidth, int sourceHeight, int[] target, int width, int height) {
+        scaleArea(IntBuffer.wrap(source), sourceWidth, sourceHeight, IntBuffer.wrap(target), width, height);
+    }
+
+    /**
+     * {@link #rotate(IntBuffer, int, int, IntBuffer, int)} of a band of rows of a bigger image. Bands are always
+     * split, the caller checked the whole image against {@link #getMinPixels()}.
+     */
+    public static void rotateBand(IntBuffer source, int width, int height, IntBuffer target, int degrees) {
+        int rows = degrees == 180 ? height : width;
+
+        run(rows, 0, (from, to) -> PixelKernels.rotate(source, width, height, target, degrees, from, to));
+    }
+
+    /**
+     * Area average downscale of the target rows [fromRow, toRow) staged as a band, see
+     * {@link PixelKernels#scaleArea(IntBuffer, int, int, IntBuffer, int, int, int, int, int)}. Always split, as above.
+     */
+    public static void scaleAreaBand(IntBuffer source, int sourceWidth, int sourceHeight, IntBuffer target, int width, int height, int fromRow, int toRow) {
+        run(toRow - fromRow, 0, (from, to) -> PixelKernels.scaleArea(source, sourceWidth, sourceHeight, target, width, height, fromRow, fromRow + from, fromRow + to));
+    }
+
+    /**
+     * Run kernel over rows (each one costing rowWeight pixels, 0 to skip the threshold) as stripes, or at once when small.
+     */
+    static void run(int rows, int rowWeight, RowKernel kernel) {
+        if ((rowWeight > 0 && (long) rows * rowWeight < minPixels) || rows < MIN_STRIPE_ROWS * 2) {
+            kernel.run(0, rows);
+            return;
+        }
+
+        ForkJoinPool executor = getPool();
+        int threads = executor.getParallelism();
+
+        if (threads <= 1) {
+            kernel.run(0, rows);
+            return;
+        }
+
+        int stripeRows = Math.max(MIN_STRIPE_ROWS, rows / (threads * STRIPES_PER_THREAD));
+
+        try {
+            executor.invoke(new Stripe(kernel, 0, rows, stripeRows));
+        } catch (RejectedExecutionException e) {
+            // pool shut down after being replaced, nothing ran yet
+            kernel.run(0, rows);
+        }
+    }
+
+    private static ForkJoinPool getPool() {
+        ForkJoinPool current = pool;
+
+        if (current != null) {
+            return current;
+        }
+
+        if (defaultPool == null) {
+            synchronized (ParallelKernels.class) {
+                if (defaultPool == null) {
+                    // workers are daemon threads and end when idle
+                    defaultPool = new ForkJoinPool(getDefaultParallelism());
+                }
+            }
+        }
+
+        return defaultPool;
+    }
+
+    interface RowKernel {
+        void run(int fromRow, int toRow);
+    }
+
+    private static class Stripe extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RowKernel kernel;
+        private final int fromRow;
+        private final int toRow;
+        private final int stripeRows;
+
+        Stripe(RowKernel kernel, int fromRow, int toRow, int stripeRows) {
+            this.kernel = kernel;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.stripeRows = stripeRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= stripeRows) {
+                kernel.run(fromRow, toRow);
+                return;
+            }
+
+            int middle = (fromRow + toRow) >>> 1;
+
+            invokeAll(new Stripe(kernel, fromRow, middle, stripeRows), new Stripe(kernel, middle, toRow, stripeRows));
+        }
+    }
+}
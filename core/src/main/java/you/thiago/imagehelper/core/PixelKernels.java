@@ -0,0 +1,255 @@
+package you.thiago.imagehelper.core;
+
+import java.nio.IntBuffer;
+
+/**
+ * Pixel kernels over packed 32 bit pixels (one int per pixel, rows stored one after the other).
+ *
+ * Kernels work on a range of destination rows, so the same loop can process a whole image or a stripe of it.
+ * Inner loops do not allocate.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PixelKernels {
+
+    /* rows of source read together by the 90/270 rotations */
+    private static final int TILE = 64;
+
+    private PixelKernels() {}
+
+    /**
+     * Nearest neighbour scale (same sampling as Bitmap.createScaledBitmap without filter).
+     */
+    public static void scaleNearest(int[] source, int sourceWidth, int sourceHeight, int[] target, int width, int height) {
+        scaleNearest(source, sourceWidth, sourceHeight, target, width, height, 0, height);
+    }
+
+    public static void scaleNearest(int[] source, int sourceWidth, int sourceHeight, int[] target, int width, int height, int fromRow, int toRow) {
+        checkSize(source.length, sourceWidth, sourceHeight);
+        checkSize(target.length, width, height);
+
+        // 16.16 fixed point steps, sampling at the center of each target pixel
+        long stepX = ((long) sourceWidth << 16) / width;
+        long stepY = ((long) sourceHeight << 16) / height;
+
+        for (int y = fromRow; y < toRow; y++) {
+            int sourceRow = (int) (((stepY >> 1) + y * stepY) >> 16) * sourceWidth;
+            int targetRow = y * width;
+            long x16 = stepX >> 1;
+
+            for (int x = 0; x < width; x++) {
+                target[targetRow + x] = source[sourceRow + (int) (x16 >> 16)];
+                x16 += stepX;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #scaleNearest(int[], int, int, int[], int, int)} on (direct) buffers, using absolute
+     * indexes from 0 (positions are not changed).
+     */
+    public static void scaleNearest(IntBuffer source, int sourceWidth, int sourceHeight, IntBuffer target, int width, int height) {
+        scaleNearest(source, sourceWidth, sourceHeight, target, width, height, 0, height);
+    }
+
+    public static void scaleNearest(IntBuffer source, int sourceWidth, int sourceHeight, IntBuffer target, int width, int height, int fromRow, int toRow) {
+        checkSize(source.limit(), sourceWidth, sourceHeight);
+        checkSize(target.limit(), width, height);
+
+        long stepX = ((long) sourceWidth << 16) / width;
+        long stepY = ((long) sourceHeight << 16) / height;
+
+        for (int y = fromRow; y < toRow; y++) {
+            int sourceRow = (int) (((stepY >> 1) + y * stepY) >> 16) * sourceWidth;
+            int targetRow = y * width;
+            long x16 = stepX >> 1;
+
+            for (int x = 0; x < width; x++) {
+                target.put(targetRow + x, source.get(sourceRow + (int) (x16 >> 16)));
+                x16 += stepX;
+            }
+        }
+    }
+
+    /**
+     * Rotate clockwise by 90, 180 or 270 degrees. Target is height x width for 90/270.
+     * Rows are target rows.
+     */
+    public static void rotate(IntBuffer source, int width, int height, IntBuffer target, int degrees, int fromRow, int toRow) {
+        checkSize(source.limit(), width, height);
+        checkSize(target.limit(), width, height);
+
+        switch (degrees) {
+            case 90: {
+                // target is height wide: target(x, y) = source(y, height - 1 - x)
+                // walked in tiles, so the source rows read by a tile stay in cache
+                for (int tile = 0; tile < height; tile += TILE) {
+                    int tileEnd = Math.min(height, tile + TILE);
+
+                    for (int y = fromRow; y < toRow; y++) {
+                        int targetRow = y * height;
+                        int sourceIndex = (height - 1 - tile) * width + y;
+
+                        for (int x = tile; x < tileEnd; x++) {
+                            target.put(targetRow + x, source.get(sourceIndex));
+                            sourceIndex -= width;
+                        }
+                    }
+                }
+                break;
+            }
+            case 180: {
+                for (int y = fromRow; y < toRow; y++) {
+                    int targetRow = y * width;
+                    int sourceIndex = (height - y) * width - 1;
+
+                    for (int x = 0; x < width; x++) {
+                        target.put(targetRow + x, source.get(sourceIndex--));
+                    }
+                }
+                break;
+            }
+            case 270: {
+                // target(x, y) = source(width - 1 - y, x), tiled as above
+                for (int tile = 0; tile < height; tile += TILE) {
+                    int tileEnd = Math.min(height, tile + TILE);
+
+                    for (int y = fromRow; y < toRow; y++) {
+                        int targetRow = y * height;
+                        int sourceIndex = tile * width + width - 1 - y;
+
+                        for (int x = tile; x < tileEnd; x++) {
+                            target.put(targetRow + x, source.get(sourceIndex));
+                            sourceIndex += width;
+                        }
+                    }
+                }
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException("Unsupported rotation: " + degrees);
+            }
+        }
+    }
+
+    public static void rotate(int[] source, int width, int height, int[] target, int degrees) {
+        rotate(IntBuffer.wrap(source), width, height, IntBuffer.wrap(target), degrees, 0, degrees == 180 ? height : width);
+    }
+
+    /**
+     * Mirror left/right (horizontal) or top/bottom, target has the source size.
+     */
+    public static void mirror(IntBuffer source, int width, int height, IntBuffer target, boolean horizontal, int fromRow, int toRow) {
+        checkSize(source.limit(), width, height);
+        checkSize(target.limit(), width, height);
+
+        for (int y = fromRow; y < toRow; y++) {
+            int targetRow = y * width;
+
+            if (horizontal) {
+                int sourceIndex = targetRow + width - 1;
+
+                for (int x = 0; x < width; x++) {
+                    target.put(targetRow + x, source.get(sourceIndex--));
+                }
+            } else {
+                int sourceRow = (height - 1 - y) * width;
+
+                for (int x = 0; x < width; x++) {
+                    target.put(targetRow + x, source.get(sourceRow + x));
+                }
+            }
+        }
+    }
+
+    public static void mirror(int[] source, int width, int height, int[] target, boolean horizontal) {
+        mirror(IntBuffer.wrap(source), width, height, IntBuffer.wrap(target), horizontal, 0, height);
+    }
+
+    /**
+     * Area average downscale: each target pixel is the mean of the source box it covers, per 8 bit channel
+     * (channel order does not matter, premultiplied pixels stay premultiplied).
+     */
+    public static void scaleArea(IntBuffer source, int sourceWidth, int sourceHeight, IntBuffer target, int width, int height, int fromRow, int toRow) {
+        checkSize(source.limit(), sourceWidth, sourceHeight);
+
+        scaleArea(source, sourceWidth, sourceHeight, target, width, height, 0, fromRow, toRow);
+    }
+
+    /**
+     * Same as above on a band of the image: source holds the source rows from {@link #getAreaTop(int, int, int)}
+     * of bandRow on, target the target rows from bandRow on. fromRow and toRow are still image rows.
+     */
+    public static void scaleArea(IntBuffer source, int sourceWidth, int sourceHeight, IntBuffer target, int width, int height, int bandRow, int fromRow, int toRow) {
+        if (width > sourceWidth || height > sourceHeight) {
+            throw new IllegalArgumentException("Area average only scales down.");
+        }
+        if (fromRow >= toRow) {
+            return;
+        }
+
+        int sourceRow = getAreaTop(bandRow, sourceHeight, height);
+
+        checkSize(source.limit(), sourceWidth, getAreaBottom(toRow - 1, sourceHeight, height) - sourceRow);
+        checkSize(target.limit(), width, toRow - bandRow);
+
+        for (int y = fromRow; y < toRow; y++) {
+            int top = getAreaTop(y, sourceHeight, height);
+            int bottom = getAreaBottom(y, sourceHeight, height);
+            int targetRow = (y - bandRow) * width;
+
+            for (int x = 0; x < width; x++) {
+                int left = (int) ((long) x * sourceWidth / width);
+                int right = Math.max(left + 1, (int) ((long) (x + 1) * sourceWidth / width));
+
+                // long sums, a box may cover millions of pixels on extreme ratios
+                long c0 = 0;
+                long c1 = 0;
+                long c2 = 0;
+                long c3 = 0;
+
+                for (int sy = top; sy < bottom; sy++) {
+                    int rowStart = (sy - sourceRow) * sourceWidth;
+
+                    for (int sx = left; sx < right; sx++) {
+                        int pixel = source.get(rowStart + sx);
+
+                        c0 += pixel >>> 24;
+                        c1 += (pixel >> 16) & 0xFF;
+                        c2 += (pixel >> 8) & 0xFF;
+                        c3 += pixel & 0xFF;
+                    }
+                }
+
+                long count = (long) (bottom - top) * (right - left);
+                long half = count >> 1;
+
+                target.put(targetRow + x, (int) ((c0 + half) / count) << 24 | (int) ((c1 + half) / count) << 16
+                        | (int) ((c2 + half) / count) << 8 | (int) ((c3 + half) / count));
+            }
+        }
+    }
+
+    public static void scaleArea(int[] source, int sourceWidth, int sourceHeight, int[] target, int width, int height) {
+        scaleArea(IntBuffer.wrap(source), sourceWidth, sourceHeight, IntBuffer.wrap(target), width, height, 0, height);
+    }
+
+    /**
+     * First source row averaged into target row y by {@link #scaleArea}.
+     */
+    public static int getAreaTop(int y, int sourceHeight, int height) {
+        return (int) ((long) y * sourceHeight / height);
+    }
+
+    /**
+     * Source row after the last one averaged into target row y by {@link #scaleArea}.
+     */
+    public static int getAreaBottom(int y, int sourceHeight, int height) {
+        return Math.max(getAreaTop(y, sourceHeight, height) + 1, (int) ((long) (y + 1) * sourceHeight / height));
+    }
+
+    static void checkSize(int length, int width, int height) {
+        if (width <= 0 || height <= 0 || (long) width * height > length) {
+            throw new IllegalArgumentException("Invalid pixel buffer: " + width + "x" + height + " in " + length + " pixels.");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package you.thiago.imagehelper.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class Base64SinkTest {
+
+    @Test
+    public void encode_matchesJdkEncoder() throws IOException {
+        Random random = new Random(7);
+
+        for (int length = 0; length < 400; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            String plain = Base64.getEncoder().encodeToString(data);
+            String lines = wrap(plain);
+
+            assertEquals(plain, encode(data, Base64Sink.LineBreak.NONE, random));
+            assertEquals(lines, encode(data, Base64Sink.LineBreak.NEWLINE, random));
+            assertEquals(lines.replace("\n", "\\n"), encode(data, Base64Sink.LineBreak.JSON_ESCAPED, random));
+        }
+    }
+
+    @Test
+    public void finish_keepsTargetOpen() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Base64Sink sink = new Base64Sink(out);
+
+        sink.write(new byte[] { 1, 2 });
+        sink.finish();
+        out.write('.');
+
+        assertEquals("AQI=.", out.toString(StandardCharsets.US_ASCII.name()));
+        assertEquals(4, sink.getEncodedBytes());
+    }
+
+    @Test(expected = IOException.class)
+    public void write_afterFinishFails() throws IOException {
+        Base64Sink sink = new Base64Sink(new ByteArrayOutputStream());
+
+        sink.finish();
+        sink.write(1);
+    }
+
+    /* random sized writes (single bytes included) over a tiny chunk, to cross every boundary */
+    private static String encode(byte[] data, Base64Sink.LineBreak lineBreak, Random random) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Base64Sink sink = new Base64Sink(out, lineBreak, 17);
+
+        int offset = 0;
+
+        while (offset < data.length) {
+            int count = Math.min(data.length - offset, 1 + random.nextInt(7));
+
+            if (count == 1) {
+                sink.write(data[offset]);
+            } else {
+                sink.write(data, offset, count);
+            }
+
+            offset += count;
+        }
+
+        sink.finish();
+
+        return out.toString(StandardCharsets.US_ASCII.name());
+    }
+
+    /* Base64.DEFAULT layout: 76 chars lines, each one ended by a line feed */
+    private static String wrap(String plain) {
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < plain.length(); i += Base64Sink.LINE_LENGTH) {
+            builder.append(plain, i, Math.min(plain.length(), i + Base64Sink.LINE_LENGTH)).append('\n');
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package you.thiago.imagehelper.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FingerprintTest {
+
+    private File file;
+
+    @After
+    public void tearDown() {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void of_sameContent() throws IOException {
+        byte[] data = random(200 * 1024);
+
+        assertEquals(fingerprint(data, 10), fingerprint(data.clone(), 10));
+    }
+
+    @Test
+    public void of_sampledBlocksChanged() throws IOException {
+        byte[] data = random(200 * 1024);
+        String original = fingerprint(data, 10);
+
+        byte[] head = data.clone();
+        head[0] ^= 1;
+        byte[] middle = data.clone();
+        middle[data.length / 2] ^= 1;
+        byte[] tail = data.clone();
+        tail[data.length - 1] ^= 1;
+
+        assertNotEquals(original, fingerprint(head, 10));
+        assertNotEquals(original, fingerprint(middle, 10));
+        assertNotEquals(original, fingerprint(tail, 10));
+        assertNotEquals(original, fingerprint(data, 11));
+    }
+
+    @Test
+    public void of_smallFileHashedWhole() throws IOException {
+        byte[] data = random(20 * 1024);
+        String original = fingerprint(data, 0);
+
+        data[Fingerprint.BLOCK_SIZE + 5] ^= 1;
+
+        assertNotEquals(original, fingerprint(data, 0));
+        assertTrue(original.startsWith(data.length + "-0-"));
+    }
+
+    private String fingerprint(byte[] data, long modified) throws IOException {
+        if (file == null) {
+            file = File.createTempFile("fingerprint", ".jpg");
+        }
+
+        Files.write(file.toPath(), data);
+
+        try (RandomAccessFile access = new RandomAccessFile(file, "r"); FileChannel channel = access.getChannel()) {
+            return Fingerprint.of(channel, modified);
+        }
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(7).nextBytes(data);
+
+        return data;
+    }
+}
@@ -0,0 +1,167 @@
+package you.thiago.imagehelper.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ImageHeaderTest {
+
+    @Test
+    public void read_jpegWithExif() throws IOException {
+        ImageHeader header = ImageHeader.read(new ByteArrayInputStream(jpeg(4000, 3000, Orientation.ROTATE_90)));
+
+        assertEquals(ImageHeader.MIME_JPEG, header.mimeType);
+        assertEquals(4000, header.width);
+        assertEquals(3000, header.height);
+        assertEquals(Orientation.ROTATE_90, header.exifOrientation);
+        assertEquals(90f, header.getRotation(), 0);
+    }
+
+    @Test
+    public void read_png() throws IOException {
+        byte[] png = {
+                (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n',
+                0, 0, 0, 13, 'I', 'H', 'D', 'R',
+                0, 0, 0x02, (byte) 0x80, 0, 0, 0x01, (byte) 0xE0
+        };
+
+        ImageHeader header = ImageHeader.read(new ByteArrayInputStream(png));
+
+        assertEquals(ImageHeader.MIME_PNG, header.mimeType);
+        assertEquals(640, header.width);
+        assertEquals(480, header.height);
+        assertEquals(0f, header.getRotation(), 0);
+    }
+
+    @Test
+    public void read_webpWithExif() throws IOException {
+        ImageHeader header = ImageHeader.read(new ByteArrayInputStream(webp(640, 480, 16, Orientation.ROTATE_180)));
+
+        assertEquals(ImageHeader.MIME_WEBP, header.mimeType);
+        assertEquals(640, header.width);
+        assertEquals(480, header.height);
+        assertTrue(header.hasOrientation());
+        assertEquals(180f, header.getRotation(), 0);
+    }
+
+    @Test
+    public void read_webpWithExifBeyondHeader() throws IOException {
+        ImageHeader header = ImageHeader.read(new ByteArrayInputStream(webp(640, 480, 1024 * 1024, Orientation.ROTATE_180)));
+
+        assertEquals(640, header.width);
+        assertEquals(480, header.height);
+        assertFalse(header.hasOrientation());
+        assertEquals(Orientation.UNKNOWN, header.exifOrientation);
+    }
+
+    @Test
+    public void read_unknownFormat() throws IOException {
+        assertNull(ImageHeader.read(new ByteArrayInputStream(new byte[64])));
+    }
+
+    @Test
+    public void sizing_fitsBoundsKeepingRatio() {
+        assertArrayEquals(new int[] { 1280, 960 }, ImageSizing.fit(4000, 3000, 1280, 960));
+        assertArrayEquals(new int[] { 720, 960 }, ImageSizing.fit(3000, 4000, 1280, 960));
+        assertArrayEquals(new int[] { 800, 600 }, ImageSizing.fit(800, 600, 1280, 960));
+
+        ImageSizing.Plan plan = ImageSizing.plan(4000, 3000, 1280, 960);
+
+        assertEquals(3, plan.sampleSize);
+        assertTrue(plan.isResized());
+    }
+
+    private static byte[] jpeg(int width, int height, int orientation) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        out.write(0xFF);
+        out.write(0xD8);
+
+        segment(out, 0xE1, new byte[] {
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 0x2A, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        });
+        segment(out, 0xC0, new byte[] { 8, (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width, 3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1 });
+
+        return out.toByteArray();
+    }
+
+    /**
+     * VP8X (EXIF flag) + VP8L of the given length + EXIF chunk, in the usual order (metadata after the image data).
+     */
+    private static byte[] webp(int width, int height, int imageLength, int orientation) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        out.write('R');
+        out.write('I');
+        out.write('F');
+        out.write('F');
+        out.write(new byte[4], 0, 4);
+        out.write('W');
+        out.write('E');
+        out.write('B');
+        out.write('P');
+
+        chunk(out, "VP8X", new byte[] {
+                0x08, 0, 0, 0,
+                (byte) (width - 1), (byte) ((width - 1) >> 8), (byte) ((width - 1) >> 16),
+                (byte) (height - 1), (byte) ((height - 1) >> 8), (byte) ((height - 1) >> 16)
+        });
+
+        byte[] image = new byte[imageLength];
+        int bits = (width - 1) | ((height - 1) << 14);
+
+        image[0] = 0x2F;
+        image[1] = (byte) bits;
+        image[2] = (byte) (bits >> 8);
+        image[3] = (byte) (bits >> 16);
+        image[4] = (byte) (bits >> 24);
+
+        chunk(out, "VP8L", image);
+        chunk(out, "EXIF", new byte[] {
+                'M', 'M', 0, 0x2A, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        });
+
+        return out.toByteArray();
+    }
+
+    private static void chunk(ByteArrayOutputStream out, String type, byte[] data) {
+        for (int i = 0; i < 4; i++) {
+            out.write(type.charAt(i));
+        }
+
+        out.write(data.length);
+        out.write(data.length >> 8);
+        out.write(data.length >> 16);
+        out.write(data.length >> 24);
+        out.write(data, 0, data.length);
+
+        if ((data.length & 1) != 0) {
+            out.write(0);
+        }
+    }
+
+    private static void segment(ByteArrayOutputStream out, int marker, byte[] data) {
+        int length = data.length + 2;
+
+        out.write(0xFF);
+        out.write(marker);
+        out.write(length >> 8);
+        out.write(length);
+        out.write(data, 0, data.length);
+    }
+}
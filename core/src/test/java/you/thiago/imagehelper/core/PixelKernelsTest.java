@@ -0,0 +1,202 @@
+package you.thiago.imagehelper.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PixelKernelsTest {
+
+    private static final int WIDTH = 67;
+    private static final int HEIGHT = 145;
+
+    @After
+    public void tearDown() {
+        ParallelKernels.setMinPixels(ParallelKernels.DEFAULT_MIN_PIXELS);
+    }
+
+    @Test
+    public void rotate_matchesNaiveRotation() {
+        int[] source = random(WIDTH * HEIGHT);
+
+        for (int degrees : new int[] { 90, 180, 270 }) {
+            int[] target = new int[source.length];
+            PixelKernels.rotate(source, WIDTH, HEIGHT, target, degrees);
+
+            assertArrayEquals("rotate " + degrees, rotateNaive(source, WIDTH, HEIGHT, degrees), target);
+        }
+    }
+
+    @Test
+    public void rotate_fullTurnIsIdentity() {
+        int[] source = random(WIDTH * HEIGHT);
+        int[] quarter = new int[source.length];
+        int[] half = new int[source.length];
+        int[] full = new int[source.length];
+
+        PixelKernels.rotate(source, WIDTH, HEIGHT, quarter, 90);
+        PixelKernels.rotate(quarter, HEIGHT, WIDTH, half, 270);
+
+        assertArrayEquals(source, half);
+
+        PixelKernels.rotate(source, WIDTH, HEIGHT, half, 180);
+        PixelKernels.rotate(half, WIDTH, HEIGHT, full, 180);
+
+        assertArrayEquals(source, full);
+    }
+
+    @Test
+    public void mirror_twiceIsIdentity() {
+        int[] source = random(WIDTH * HEIGHT);
+        int[] mirrored = new int[source.length];
+        int[] back = new int[source.length];
+
+        for (boolean horizontal : new boolean[] { true, false }) {
+            PixelKernels.mirror(source, WIDTH, HEIGHT, mirrored, horizontal);
+            PixelKernels.mirror(mirrored, WIDTH, HEIGHT, back, horizontal);
+
+            assertEquals(horizontal ? source[WIDTH - 1] : source[(HEIGHT - 1) * WIDTH], mirrored[0]);
+            assertArrayEquals(source, back);
+        }
+    }
+
+    @Test
+    public void scaleArea_averagesBoxes() {
+        // 4x2 source into 2x1: each target pixel averages a 2x2 box, per channel
+        int[] source = {
+                0xFF000000, 0xFF0000FF, 0x00FFFFFF, 0x00FFFFFF,
+                0xFF00FF00, 0xFFFF0000, 0x00FFFFFF, 0x00FFFFFF
+        };
+        int[] target = new int[2];
+
+        PixelKernels.scaleArea(source, 4, 2, target, 2, 1);
+
+        assertEquals(0xFF404040, target[0]);
+        assertEquals(0x00FFFFFF, target[1]);
+    }
+
+    @Test
+    public void parallel_matchesSerial() {
+        ParallelKernels.setMinPixels(0);
+
+        int width = 640;
+        int height = 480;
+        int[] source = random(width * height);
+        int[] serial = new int[source.length];
+        int[] parallel = new int[source.length];
+
+        for (int degrees : new int[] { 90, 180, 270 }) {
+            PixelKernels.rotate(source, width, height, serial, degrees);
+            ParallelKernels.rotate(source, width, height, parallel, degrees);
+
+            assertArrayEquals(serial, parallel);
+        }
+
+        PixelKernels.mirror(source, width, height, serial, true);
+        ParallelKernels.mirror(source, width, height, parallel, true);
+
+        assertArrayEquals(serial, parallel);
+
+        int[] scaledSerial = new int[200 * 150];
+        int[] scaledParallel = new int[200 * 150];
+
+        PixelKernels.scaleArea(source, width, height, scaledSerial, 200, 150);
+        ParallelKernels.scaleArea(source, width, height, scaledParallel, 200, 150);
+
+        assertArrayEquals(scaledSerial, scaledParallel);
+    }
+
+    @Test
+    public void bands_matchWholeImage() {
+        int width = 640;
+        int height = 480;
+        int bandRows = 100;
+        int[] source = random(width * height);
+        int[] whole = new int[source.length];
+        int[] banded = new int[source.length];
+        int[] band = new int[width * bandRows];
+
+        for (int degrees : new int[] { 90, 180, 270 }) {
+            PixelKernels.rotate(source, width, height, whole, degrees);
+
+            for (int top = 0; top < height; top += bandRows) {
+                int rows = Math.min(bandRows, height - top);
+
+                ParallelKernels.rotateBand(IntBuffer.wrap(source, top * width, rows * width).slice(), width, rows, IntBuffer.wrap(band), degrees);
+
+                // place the rotated band like Bitmap#setPixels would
+                for (int y = 0; y < (degrees == 180 ? rows : width); y++) {
+                    for (int x = 0; x < (degrees == 180 ? width : rows); x++) {
+                        int pixel = band[y * (degrees == 180 ? width : rows) + x];
+
+                        if (degrees == 90) {
+                            banded[y * height + height - top - rows + x] = pixel;
+                        } else if (degrees == 270) {
+                            banded[y * height + top + x] = pixel;
+                        } else {
+                            banded[(height - top - rows + y) * width + x] = pixel;
+                        }
+                    }
+                }
+            }
+
+            assertArrayEquals("rotate " + degrees, whole, banded);
+        }
+
+        int scaledWidth = 200;
+        int scaledHeight = 150;
+        int[] scaledWhole = new int[scaledWidth * scaledHeight];
+        int[] scaledBanded = new int[scaledWidth * scaledHeight];
+        int[] scaledBand = new int[scaledWidth * scaledHeight];
+
+        PixelKernels.scaleArea(source, width, height, scaledWhole, scaledWidth, scaledHeight);
+
+        for (int top = 0; top < scaledHeight; top += 37) {
+            int bottom = Math.min(scaledHeight, top + 37);
+            int sourceTop = PixelKernels.getAreaTop(top, height, scaledHeight);
+            int sourceRows = PixelKernels.getAreaBottom(bottom - 1, height, scaledHeight) - sourceTop;
+
+            ParallelKernels.scaleAreaBand(IntBuffer.wrap(source, sourceTop * width, sourceRows * width).slice(), width, height,
+                    IntBuffer.wrap(scaledBand), scaledWidth, scaledHeight, top, bottom);
+
+            System.arraycopy(scaledBand, 0, scaledBanded, top * scaledWidth, (bottom - top) * scaledWidth);
+        }
+
+        assertArrayEquals(scaledWhole, scaledBanded);
+    }
+
+    private static int[] rotateNaive(int[] source, int width, int height, int degrees) {
+        int[] target = new int[source.length];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = source[y * width + x];
+
+                if (degrees == 90) {
+                    target[x * height + (height - 1 - y)] = pixel;
+                } else if (degrees == 180) {
+                    target[(height - 1 - y) * width + (width - 1 - x)] = pixel;
+                } else {
+                    target[(width - 1 - x) * height + y] = pixel;
+                }
+            }
+        }
+
+        return target;
+    }
+
+    private static int[] random(int length) {
+        Random random = new Random(length);
+        int[] pixels = new int[length];
+
+        for (int i = 0; i < length; i++) {
+            pixels[i] = random.nextInt();
+        }
+
+        return pixels;
+    }
+}